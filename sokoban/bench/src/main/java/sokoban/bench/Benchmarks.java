@@ -0,0 +1,28 @@
+package sokoban.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line, always adding the GC profiler
+ * so that every result comes with its allocation per operation (gc.alloc.rate.norm).
+ * @author Andrew Goldin
+ */
+public class Benchmarks {
+
+	/**
+	 * Runs the benchmarks.
+	 * @param args JMH options, such as a benchmark name pattern or -p level=easy4
+	 */
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+
+}
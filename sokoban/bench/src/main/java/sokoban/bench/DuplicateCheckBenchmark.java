@@ -0,0 +1,157 @@
+package sokoban.bench;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import sokoban.PuzzleState;
+import sokoban.Solver;
+import sokoban.StateStore;
+
+/**
+ * The explored-list operations of a search: hashing a state, comparing it with an
+ * equal copy, and looking it up in or adding it to the StateStore the searches use,
+ * and to a hash set of states as they used before. Scores are per sample state.
+ * @author Andrew Goldin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DuplicateCheckBenchmark {
+
+	@Param({ "easy4", "moderate6" })
+	public String level;
+
+	private PuzzleState start;
+	private List<PuzzleState> sample, copies;
+	private HashSet<PuzzleState> explored;
+	private StateStore store;
+
+
+	/**
+	 * Collects the sample, an equal copy of each state, and a store and a set holding the sample.
+	 */
+	@Setup
+	public void setup() {
+		start = Levels.load(level, Solver.BFS, Solver.MANHATTAN);
+		sample = Levels.sample(start);
+		copies = new ArrayList<PuzzleState>();
+		for (PuzzleState state : sample) {
+			copies.add(new PuzzleState(state.getBoard(), state.getBoxes().clone(), state.getPlayer(),
+					Solver.BFS, Solver.MANHATTAN));
+		}
+		explored = new HashSet<PuzzleState>(sample);
+		store = new StateStore(start);
+		for (PuzzleState state : sample) {
+			store.add(state, state.getNumMoves(), -1);
+		}
+	}
+
+
+	/**
+	 * Hashes each state.
+	 * @return the combined hash codes
+	 */
+	@Benchmark
+	@OperationsPerInvocation(Levels.SAMPLE)
+	public int hashCodes() {
+		int sum = 0;
+		for (PuzzleState state : sample) {
+			sum += state.hashCode();
+		}
+		return sum;
+	}
+
+
+	/**
+	 * Compares each state with an equal copy.
+	 * @return the number of equal pairs
+	 */
+	@Benchmark
+	@OperationsPerInvocation(Levels.SAMPLE)
+	public int equalCopies() {
+		int equal = 0;
+		for (int i = 0; i < Levels.SAMPLE; i++) {
+			if (sample.get(i).equals(copies.get(i))) equal++;
+		}
+		return equal;
+	}
+
+
+	/**
+	 * Looks up an equal copy of each state in a store holding the sample.
+	 * @return the number found
+	 */
+	@Benchmark
+	@OperationsPerInvocation(Levels.SAMPLE)
+	public int storeFind() {
+		int found = 0;
+		for (PuzzleState copy : copies) {
+			if (store.find(copy) >= 0) found++;
+		}
+		return found;
+	}
+
+
+	/**
+	 * Adds each state to a new store, as the explored list of a search grows.
+	 * @return the filled store
+	 */
+	@Benchmark
+	@OperationsPerInvocation(Levels.SAMPLE)
+	public StateStore storeAdd() {
+		StateStore added = new StateStore(start);
+		for (PuzzleState state : sample) {
+			added.add(state, state.getNumMoves(), -1);
+		}
+		return added;
+	}
+
+
+	/**
+	 * Looks up an equal copy of each state in a hash set holding the sample, for comparison.
+	 * @return the number found
+	 */
+	@Benchmark
+	@OperationsPerInvocation(Levels.SAMPLE)
+	public int contains() {
+		int found = 0;
+		for (PuzzleState copy : copies) {
+			if (explored.contains(copy)) found++;
+		}
+		return found;
+	}
+
+
+	/**
+	 * Adds each state to a new hash set, for comparison.
+	 * @return the filled set
+	 */
+	@Benchmark
+	@OperationsPerInvocation(Levels.SAMPLE)
+	public HashSet<PuzzleState> add() {
+		HashSet<PuzzleState> set = new HashSet<PuzzleState>();
+		for (PuzzleState state : sample) {
+			set.add(state);
+		}
+		return set;
+	}
+
+}
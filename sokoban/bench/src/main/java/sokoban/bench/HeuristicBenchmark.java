@@ -0,0 +1,137 @@
+package sokoban.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import sokoban.MatchingHeuristic;
+import sokoban.PatternDatabase;
+import sokoban.PuzzleState;
+import sokoban.Solver;
+
+/**
+ * The cost of evaluating one state with each heuristic. The Manhattan and straight
+ * line heuristics run while a state is created, so they are measured by re-scoring a
+ * copy of the state; copyOnly is the same copy with no heuristic, for reference.
+ * Scores are per sample state.
+ * @author Andrew Goldin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeuristicBenchmark {
+
+	@Param({ "easy4", "moderate5", "moderate6" })
+	public String level;
+
+	private List<PuzzleState> sample;
+	private MatchingHeuristic matcher;
+	private PatternDatabase patterns;
+
+
+	/**
+	 * Collects the sample and builds the matching heuristic and pattern database.
+	 */
+	@Setup
+	public void setup() {
+		sample = Levels.sample(level, Solver.MATCHING);
+		matcher = new MatchingHeuristic(sample.get(0).getBoard());
+		patterns = new PatternDatabase(sample.get(0), null);
+	}
+
+
+	/**
+	 * Copies each state without computing a heuristic.
+	 * @param bh consumes the copies
+	 */
+	@Benchmark
+	@OperationsPerInvocation(Levels.SAMPLE)
+	public void copyOnly(Blackhole bh) {
+		for (PuzzleState state : sample) {
+			bh.consume(state.setSearchHeuristic(Solver.MATCHING));
+		}
+	}
+
+
+	/**
+	 * Copies each state with the Manhattan distance heuristic.
+	 * @param bh consumes the estimates
+	 */
+	@Benchmark
+	@OperationsPerInvocation(Levels.SAMPLE)
+	public void manhattan(Blackhole bh) {
+		for (PuzzleState state : sample) {
+			bh.consume(state.setSearchHeuristic(Solver.MANHATTAN).getEstimate());
+		}
+	}
+
+
+	/**
+	 * Copies each state with the straight line distance heuristic.
+	 * @param bh consumes the estimates
+	 */
+	@Benchmark
+	@OperationsPerInvocation(Levels.SAMPLE)
+	public void straightLine(Blackhole bh) {
+		for (PuzzleState state : sample) {
+			bh.consume(state.setSearchHeuristic(Solver.STRAIGHT_LINE).getEstimate());
+		}
+	}
+
+
+	/**
+	 * Solves the matching of each state from scratch.
+	 * @param bh consumes the estimates
+	 */
+	@Benchmark
+	@OperationsPerInvocation(Levels.SAMPLE)
+	public void matchingFull(Blackhole bh) {
+		for (PuzzleState state : sample) {
+			bh.consume(matcher.estimate(state));
+		}
+	}
+
+
+	/**
+	 * Updates the matching of each state's parent for the state, as a search does.
+	 * @param bh consumes the estimates
+	 */
+	@Benchmark
+	@OperationsPerInvocation(Levels.SAMPLE)
+	public void matchingIncremental(Blackhole bh) {
+		for (PuzzleState state : sample) {
+			PuzzleState parent = state.getParent() == null ? state : state.getParent();
+			bh.consume(matcher.estimate(parent, state));
+		}
+	}
+
+
+	/**
+	 * Looks up each state in the pattern database.
+	 * @param bh consumes the estimates
+	 */
+	@Benchmark
+	@OperationsPerInvocation(Levels.SAMPLE)
+	public void patternDatabase(Blackhole bh) {
+		for (PuzzleState state : sample) {
+			bh.consume(patterns.estimate(state));
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package sokoban.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+
+import sokoban.PuzzleState;
+import sokoban.Solver;
+
+/**
+ * Loads the bundled levels and collects sample states from them for the benchmarks.
+ * The level directory is ../puzzles (the benchmarks run from sokoban/bench) unless
+ * the sokoban.puzzles system property says otherwise.
+ * @author Andrew Goldin
+ */
+public class Levels {
+
+	/**
+	 * The number of states every per-state benchmark goes through in one operation.
+	 */
+	public static final int SAMPLE = 256;
+
+
+	/**
+	 * Reads the start state of a bundled level.
+	 * @param name the level name, such as easy1
+	 * @param type the search type of the state
+	 * @param heur the search heuristic of the state
+	 * @return the start state
+	 */
+	public static PuzzleState load(String name, int type, int heur) {
+		File dir = new File(System.getProperty("sokoban.puzzles", "../puzzles"));
+		return PuzzleState.parseFile(new File(dir, name + ".txt").getPath(), type, heur);
+	}
+
+
+	/**
+	 * Collects SAMPLE states in breadth-first order from a start state, repeating the
+	 * first ones if the level has fewer. Push-level start states give push-level samples.
+	 * Each state but the start has its parent in the sample.
+	 * @param start the state to search from
+	 * @return the sample states
+	 */
+	public static List<PuzzleState> sample(PuzzleState start) {
+		List<PuzzleState> found = new ArrayList<PuzzleState>();
+		HashSet<PuzzleState> seen = new HashSet<PuzzleState>();
+		LinkedList<PuzzleState> fringe = new LinkedList<PuzzleState>();
+		List<PuzzleState> children = new ArrayList<PuzzleState>();
+		fringe.add(start);
+		seen.add(start);
+		while (!fringe.isEmpty() && found.size() < SAMPLE) {
+			PuzzleState current = fringe.remove();
+			found.add(current);
+			children.clear();
+			if (current.isPushLevel()) {
+				current.generatePushes(children, null);
+			}
+			else {
+				for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+					if (current.canMove(d)) children.add(current.generateMove(d));
+				}
+			}
+			for (PuzzleState next : children) {
+				if (seen.add(next)) fringe.add(next);
+			}
+		}
+		List<PuzzleState> sample = new ArrayList<PuzzleState>(SAMPLE);
+		for (int i = 0; i < SAMPLE; i++) {
+			sample.add(found.get(i % found.size()));
+		}
+		return sample;
+	}
+
+
+	/**
+	 * Collects sample states for A* with a given heuristic.
+	 * @param name the level name
+	 * @param heur the search heuristic
+	 * @return the sample states
+	 */
+	public static List<PuzzleState> sample(String name, int heur) {
+		return sample(load(name, Solver.A_STAR, heur));
+	}
+
+}
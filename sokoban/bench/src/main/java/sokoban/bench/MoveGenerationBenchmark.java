@@ -0,0 +1,119 @@
+package sokoban.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import sokoban.DeadlockDetector;
+import sokoban.PuzzleState;
+import sokoban.Solver;
+
+/**
+ * Successor generation: single steps (canMove and generateMove, with and without
+ * the deadlock check) and whole pushes (generatePushes). Scores are per sample state.
+ * @author Andrew Goldin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveGenerationBenchmark {
+
+	@Param({ "easy1", "easy4", "moderate5", "moderate6" })
+	public String level;
+
+	private List<PuzzleState> steps, pushes;
+	private DeadlockDetector detector;
+	private List<PuzzleState> children = new ArrayList<PuzzleState>();
+
+
+	/**
+	 * Collects the step and push samples.
+	 */
+	@Setup
+	public void setup() {
+		PuzzleState start = Levels.load(level, Solver.BFS, Solver.MANHATTAN);
+		steps = Levels.sample(start);
+		pushes = Levels.sample(start.setPushLevel());
+		detector = new DeadlockDetector(start.getBoard());
+	}
+
+
+	/**
+	 * Tests every direction of every sample state with canMove.
+	 * @return the number of legal moves
+	 */
+	@Benchmark
+	@OperationsPerInvocation(Levels.SAMPLE)
+	public int canMove() {
+		int legal = 0;
+		for (PuzzleState state : steps) {
+			for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+				if (state.canMove(d)) legal++;
+			}
+		}
+		return legal;
+	}
+
+
+	/**
+	 * Generates every legal step of every sample state.
+	 * @param bh consumes the children
+	 */
+	@Benchmark
+	@OperationsPerInvocation(Levels.SAMPLE)
+	public void generateMove(Blackhole bh) {
+		for (PuzzleState state : steps) {
+			for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+				if (state.canMove(d)) bh.consume(state.generateMove(d));
+			}
+		}
+	}
+
+
+	/**
+	 * Generates every legal step of every sample state, checking pushes for deadlocks.
+	 * @param bh consumes the children
+	 */
+	@Benchmark
+	@OperationsPerInvocation(Levels.SAMPLE)
+	public void generateMoveWithDeadlocks(Blackhole bh) {
+		for (PuzzleState state : steps) {
+			for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+				if (state.canMove(d)) bh.consume(state.generateMove(d, detector));
+			}
+		}
+	}
+
+
+	/**
+	 * Generates every push of every push-level sample state.
+	 * @param bh consumes the children
+	 */
+	@Benchmark
+	@OperationsPerInvocation(Levels.SAMPLE)
+	public void generatePushes(Blackhole bh) {
+		for (PuzzleState state : pushes) {
+			children.clear();
+			bh.consume(state.generatePushes(children, detector));
+			bh.consume(children);
+		}
+	}
+
+}
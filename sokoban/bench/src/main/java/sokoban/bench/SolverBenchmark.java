@@ -0,0 +1,70 @@
+package sokoban.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import sokoban.PuzzleState;
+import sokoban.Sokoban;
+import sokoban.Solver;
+
+/**
+ * End-to-end solves of the bundled easy and moderate levels. The search is given as
+ * on the command line, with spaces instead of separate arguments (for example
+ * "astar 3 p"). Scores are per solve.
+ * @author Andrew Goldin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SolverBenchmark {
+
+	@Param({ "easy1", "easy3", "easy4", "easy5", "moderate1", "moderate2", "moderate3", "moderate4",
+			"moderate5", "moderate6", "moderate7" })
+	public String level;
+
+	@Param({ "bfs", "astar 3", "astar 3 p", "idastar 3 p", "bidir" })
+	public String search;
+
+	private PuzzleState start;
+	private String[] args;
+	private boolean push;
+
+
+	/**
+	 * Loads the level and splits the search arguments.
+	 */
+	@Setup
+	public void setup() {
+		start = Levels.load(level, Solver.BFS, Solver.MANHATTAN);
+		args = (level + " " + search).split(" ");
+		push = search.endsWith(" p");
+	}
+
+
+	/**
+	 * Solves the level once.
+	 * @return the solution
+	 */
+	@Benchmark
+	public String solve() throws Exception {
+		Solver s = new Solver(false);
+		s.setPushLevel(push);
+		Sokoban.search(s, start, args);
+		return s.getSolution();
+	}
+
+}
@@ -0,0 +1,263 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Solves every level in a directory, or in a collection file, on a pool of threads
+ * within one JVM, and writes one line of results per level as CSV or JSON.
+ * Each level gets its own Solver with a time budget and a memory budget; a level that
+ * runs over either stops and is reported as such, without holding up the others.
+ * <p>
+ * Usage:
+ * <pre>
+ * java Sokoban batch &lt;directory|collection&gt; &lt;searchtype&gt; [depthlimit|heuristic] [p]
+ *     [threads=N] [time=SECONDS] [memory=MB] [format=csv|json] [out=FILE] [cache|cache=DIR] [sym] [macro]
+ * </pre>
+ * A collection is a text file holding several levels one after another, each in the
+ * usual format (a row count, then the rows). The search arguments are the same as
+ * for a single level.
+ * @author Andrew Goldin
+ */
+public class BatchSolver {
+
+	private final String[] search;
+	private final boolean pushLevel;
+	private final long timeBudget, memoryBudget;
+	private SolutionCache cache;
+	private boolean symmetry, macros;
+
+
+	/**
+	 * Creates a batch solver.
+	 * @param search the search arguments as for Sokoban.main, without the file name
+	 * @param pushLevel whether to search at the push level
+	 * @param timeBudget the longest one level may take, in milliseconds, or 0 for no limit
+	 * @param memoryBudget the most heap one level may use, in bytes, or 0 for no limit
+	 */
+	public BatchSolver(String[] search, boolean pushLevel, long timeBudget, long memoryBudget) {
+		this.search = search;
+		this.pushLevel = pushLevel;
+		this.timeBudget = timeBudget;
+		this.memoryBudget = memoryBudget;
+	}
+
+
+	/**
+	 * Has the batch take solutions from a cache when it can, and store the ones it finds.
+	 * @param solutions the cache, or null for none
+	 */
+	public void setSolutionCache(SolutionCache solutions) {
+		cache = solutions;
+	}
+	
+	
+	/**
+	 * Has the batch detect duplicate states up to the symmetries of each level.
+	 * @param reduce true to treat rotations and reflections of a state as repeats
+	 */
+	public void setSymmetry(boolean reduce) {
+		symmetry = reduce;
+	}
+	
+	
+	/**
+	 * Has the batch make macro pushes through tunnels and into goal rooms at the push level.
+	 * @param macro true to make macro pushes
+	 */
+	public void setMacroMoves(boolean macro) {
+		macros = macro;
+	}
+	
+	
+	/**
+	 * Runs a batch from the command line.
+	 * @param args the path, the search arguments and the batch options
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: java Sokoban batch <directory|collection> <searchtype> [depthlimit|heuristic] [p]"
+					+ " [threads=N] [time=SECONDS] [memory=MB] [format=csv|json] [out=FILE] [cache|cache=DIR] [sym] [macro]");
+			return;
+		}
+		List<String> search = new ArrayList<String>();
+		search.add(args[0]);
+		boolean push = false, json = false, symmetry = false, macros = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long time = 0, memory = 0;
+		String out = null;
+		SolutionCache cache = null;
+		for (int i = 1; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equalsIgnoreCase("p")) push = true;
+			else if (arg.equalsIgnoreCase("sym")) symmetry = true;
+			else if (arg.equalsIgnoreCase("macro")) macros = true;
+			else if (arg.startsWith("threads=")) threads = Math.max(1, Integer.parseInt(arg.substring(8)));
+			else if (arg.startsWith("time=")) time = (long) (Double.parseDouble(arg.substring(5)) * 1000);
+			else if (arg.startsWith("memory=")) memory = Long.parseLong(arg.substring(7)) << 20;
+			else if (arg.startsWith("format=")) json = arg.substring(7).equalsIgnoreCase("json");
+			else if (arg.startsWith("out=")) out = arg.substring(4);
+			else if (arg.equalsIgnoreCase("cache")) {
+				cache = new SolutionCache(SolutionCache.defaultDirectory(), SolutionCache.DEFAULT_BYTES);
+			}
+			else if (arg.startsWith("cache=")) {
+				cache = new SolutionCache(new File(arg.substring(6)), SolutionCache.DEFAULT_BYTES);
+			}
+			else search.add(arg);
+		}
+		PrintStream results = out == null ? System.out : new PrintStream(new File(out));
+		BatchSolver batch = new BatchSolver(search.toArray(new String[search.size()]), push, time, memory);
+		batch.setSolutionCache(cache);
+		batch.setSymmetry(symmetry);
+		batch.setMacroMoves(macros);
+		batch.run(new File(args[0]), threads, json, results);
+		if (out != null) results.close();
+	}
+
+
+	/**
+	 * Solves every level found at a path and writes the results in the order the
+	 * levels were found.
+	 * @param path a directory of level files (*.txt), or a single level or collection file
+	 * @param threads the number of levels solved at once
+	 * @param json true for JSON lines, false for CSV with a header
+	 * @param out where the result lines go
+	 */
+	public void run(File path, int threads, final boolean json, PrintStream out) throws Exception {
+		List<String> names = new ArrayList<String>();
+		List<char[][]> levels = new ArrayList<char[][]>();
+		List<String> sources = new ArrayList<String>();
+		File[] files = path.isDirectory() ? path.listFiles() : new File[] { path };
+		Arrays.sort(files);
+		for (File file : files) {
+			if (!file.isFile() || (path.isDirectory() && !file.getName().endsWith(".txt"))) continue;
+			List<char[][]> found = readLevels(file);
+			for (int i = 0; i < found.size(); i++) {
+				names.add(found.size() == 1 ? file.getName() : file.getName() + "#" + (i + 1));
+				levels.add(found.get(i));
+				// a pattern database file can only belong to one level
+				sources.add(found.size() == 1 ? file.getPath() : null);
+			}
+		}
+		if (!json) {
+			out.println("level,status,moves,pushes,nodes,runtime_ms,peak_fringe");
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<String>> lines = new ArrayList<Future<String>>();
+		for (int i = 0; i < levels.size(); i++) {
+			final String name = names.get(i), source = sources.get(i);
+			final char[][] level = levels.get(i);
+			lines.add(pool.submit(new Callable<String>() {
+				public String call() {
+					return solve(name, level, source, json);
+				}
+			}));
+		}
+		for (Future<String> line : lines) {
+			out.println(line.get());
+			out.flush();
+		}
+		pool.shutdown();
+	}
+
+
+	/**
+	 * Solves one level and formats the result line.
+	 * @param name the name of the level in the results
+	 * @param level the level grid
+	 * @param source the file the level came from, or null
+	 * @param json true for a JSON line, false for a CSV line
+	 * @return the result line
+	 */
+	public String solve(String name, char[][] level, String source, boolean json) {
+		Solver s = new Solver(false);
+		s.setPushLevel(pushLevel);
+		s.setSymmetry(symmetry);
+		s.setMacroMoves(macros);
+		s.setLevelFile(source);
+		PuzzleState p = new PuzzleState(level, Solver.BFS, Solver.MANHATTAN);
+		s.setBudget(timeBudget, statesFor(memoryBudget, p));
+		String status;
+		String key = SolutionCache.searchKey(search, pushLevel);
+		try {
+			if (cache != null && s.solveFromCache(p, cache, key)) {
+				status = "cached";
+			}
+			else if (!Sokoban.search(s, p, search)) {
+				status = "error";
+			}
+			else if (s.isSolved()) {
+				status = "solved";
+				if (cache != null) cache.put(p, key, s.getResult());
+			}
+			else if (s.getStopReason() != null) {
+				status = s.getStopReason().startsWith("time") ? "timeout"
+						: s.getStopReason().startsWith("memory") ? "memory" : "cancelled";
+			}
+			else {
+				status = "unsolved";
+			}
+		} catch (OutOfMemoryError e) {
+			status = "memory";
+		} catch (Exception e) {
+			status = "error";
+		}
+		String solution = s.getSolution();
+		int moves = solution == null ? 0 : solution.length(), pushes = 0;
+		for (int i = 0; i < moves; i++) {
+			if (Character.isUpperCase(solution.charAt(i))) pushes++;
+		}
+		if (json) {
+			return "{\"level\":\"" + name.replace("\\", "\\\\").replace("\"", "\\\"") + "\",\"status\":\"" + status
+					+ "\",\"moves\":" + moves + ",\"pushes\":" + pushes + ",\"nodes\":" + s.getNodesGenerated()
+					+ ",\"runtime_ms\":" + s.getRuntime() + ",\"peak_fringe\":" + s.getPeakFringe() + "}";
+		}
+		return (name.contains(",") ? "\"" + name.replace("\"", "\"\"") + "\"" : name) + "," + status + ","
+				+ moves + "," + pushes + "," + s.getNodesGenerated() + "," + s.getRuntime() + "," + s.getPeakFringe();
+	}
+
+
+	/**
+	 * Roughly how many states of a level fit in a number of bytes of heap, for turning
+	 * a memory budget into a state budget. The explored states are packed in a
+	 * StateStore, so a state costs what the store's layout for the level takes.
+	 * @param bytes the memory budget, or 0 for no limit
+	 * @param start the start state of the level
+	 * @return the state budget, or 0 for no limit
+	 */
+	public static long statesFor(long bytes, PuzzleState start) {
+		return bytes / new StateStore(start).getBytesPerState();
+	}
+	
+	
+	/**
+	 * Reads the levels of a file: each is a row count followed by that many rows, and
+	 * blank lines between levels are skipped.
+	 * @param file the level or collection file
+	 * @return the level grids in file order
+	 */
+	public static List<char[][]> readLevels(File file) throws FileNotFoundException {
+		List<char[][]> levels = new ArrayList<char[][]>();
+		Scanner read = new Scanner(file);
+		while (read.hasNextLine()) {
+			String line = read.nextLine().trim();
+			if (line.length() == 0) continue;
+			int length = Integer.parseInt(line);
+			char[][] grid = new char[length][];
+			for (int i = 0; i < length && read.hasNextLine(); i++) {
+				grid[i] = read.nextLine().toCharArray();
+			}
+			levels.add(grid);
+		}
+		read.close();
+		return levels;
+	}
+
+}
@@ -0,0 +1,670 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Represents the static part of a Sokoban level: walls, goals and floor.
+ * A single Board is shared by every PuzzleState generated from the same level,
+ * so squares are addressed by a cell index (row * width + col) rather than by
+ * copying the grid into each state.
+ * @author Andrew Goldin
+ */
+public class Board {
+
+	private final int width, height;
+	private final int[] rowLengths;
+	private final boolean[] walls, goals, dead;
+	private final int[] goalCells;
+
+	// pushDistances[g][cell]: the fewest pushes that move a box from cell onto goal g,
+	// ignoring the other boxes, or UNREACHABLE
+	private final int[][] pushDistances;
+
+	/**
+	 * Push distance of a cell from which a box can never reach a given goal.
+	 */
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	// zobrist hashing: one random key per square for a box and for the player
+	private final long[] boxKeys, playerKeys;
+
+	// the rotations and reflections that map the level onto itself, other than the identity:
+	// symmetries[s][cell] is where a cell goes, and directions[s][d] where a step goes
+	private final int[][] symmetries, directions;
+	private final String[] symmetryNames;
+
+	// tunnels[d][cell]: a box pushed onto cell in direction d stands in a one-wide tunnel,
+	// with the player behind it, where the only useful push is on in the same direction
+	private final boolean[][] tunnels;
+
+	// the goal room, if every goal lies in an area the rest of the level reaches through a
+	// single entrance square: the area, the goals in the order they can be filled, and for
+	// each slot and direction the moves that carry a box pushed onto the entrance to it
+	private int roomEntrance = -1;
+	private boolean[] room;
+	private int[] roomSlots;
+	private String[][] roomMoves;
+
+	// the most squares a goal room may have, since finding the fill order searches
+	// every box and player position in it
+	private static final int ROOM_LIMIT = 100;
+
+	// the eight ways of turning and flipping a square, in the order tried: each row maps
+	// (row, col) inside the bounding box to (row, col) as { row from row, row from col,
+	// col from row, col from col } with -1 for a flipped axis; only the first three keep
+	// the box's shape when it is not square
+	private static final int[][] TRANSFORMS = {
+		{ -1, 0, 0, -1 }, { -1, 0, 0, 1 }, { 1, 0, 0, -1 },
+		{ 0, 1, 1, 0 }, { 0, 1, -1, 0 }, { 0, -1, 1, 0 }, { 0, -1, -1, 0 }
+	};
+	private static final String[] TRANSFORM_NAMES = {
+		"rotate 180", "mirror top-bottom", "mirror left-right",
+		"mirror on the diagonal", "rotate 90", "rotate 270", "mirror on the anti-diagonal"
+	};
+
+
+	/**
+	 * Creates a board from a level grid. Boxes and the player are ignored, only
+	 * the walls and goals are kept. Squares past the end of a short row are
+	 * treated as walls.
+	 * @param grid the level as a 2D char array
+	 */
+	public Board(char[][] grid) {
+		height = grid.length;
+		rowLengths = new int[height];
+		int w = 0;
+		for (int i = 0; i < height; i++) {
+			rowLengths[i] = grid[i].length;
+			w = Math.max(w, grid[i].length);
+		}
+		width = w;
+		walls = new boolean[width * height];
+		goals = new boolean[width * height];
+		LinkedList<Integer> goalLocs = new LinkedList<Integer>();
+		for (int i = 0; i < height; i++) {
+			for (int j = 0; j < width; j++) {
+				int cell = i * width + j;
+				if (j >= grid[i].length || grid[i][j] == PuzzleState.WALL) {
+					walls[cell] = true;
+				}
+				else if (grid[i][j] == PuzzleState.EMPTY_GOAL || grid[i][j] == PuzzleState.PLAYER_ON_GOAL
+						|| grid[i][j] == PuzzleState.BOX_ON_GOAL) {
+					goals[cell] = true;
+					goalLocs.add(cell);
+				}
+			}
+		}
+		goalCells = new int[goalLocs.size()];
+		for (int i = 0; i < goalCells.length; i++) {
+			goalCells[i] = goalLocs.get(i);
+		}
+
+		pushDistances = new int[goalCells.length][];
+		for (int i = 0; i < goalCells.length; i++) {
+			pushDistances[i] = computePushDistances(goalCells[i]);
+		}
+		dead = computeDeadSquares();
+
+		Random random = new Random(height * 31 + width);
+		boxKeys = new long[width * height];
+		playerKeys = new long[width * height];
+		for (int i = 0; i < boxKeys.length; i++) {
+			boxKeys[i] = random.nextLong();
+			playerKeys[i] = random.nextLong();
+		}
+
+		List<int[]> maps = new ArrayList<int[]>(), turns = new ArrayList<int[]>();
+		List<String> names = new ArrayList<String>();
+		boolean[] interior = computeInterior();
+		for (int t = 0; t < TRANSFORMS.length; t++) {
+			int[] map = computeSymmetry(interior, TRANSFORMS[t]);
+			if (map == null) continue;
+			maps.add(map);
+			names.add(TRANSFORM_NAMES[t]);
+			// a step turns with the flips and swaps of the transform, whatever the cell
+			int[] turn = new int[PuzzleState.RIGHT + 1];
+			for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+				int dRow = offset(d) / width, dCol = offset(d) % width;
+				int newRow = TRANSFORMS[t][0] * dRow + TRANSFORMS[t][1] * dCol;
+				int newCol = TRANSFORMS[t][2] * dRow + TRANSFORMS[t][3] * dCol;
+				turn[d] = newRow < 0 ? PuzzleState.UP : newRow > 0 ? PuzzleState.DOWN
+						: newCol < 0 ? PuzzleState.LEFT : PuzzleState.RIGHT;
+			}
+			turns.add(turn);
+		}
+		symmetries = maps.toArray(new int[maps.size()][]);
+		directions = turns.toArray(new int[turns.size()][]);
+		symmetryNames = names.toArray(new String[names.size()]);
+
+		tunnels = computeTunnels(interior);
+		computeGoalRoom(interior);
+	}
+
+
+	/**
+	 * The width of the board, i.e. the length of its longest row.
+	 * @return the board width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+
+	/**
+	 * The number of rows on the board.
+	 * @return the board height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+
+	/**
+	 * The number of cells on the board (width * height).
+	 * @return the number of cells
+	 */
+	public int getSize() {
+		return width * height;
+	}
+
+
+	/**
+	 * The length of a row as it appeared in the level file.
+	 * @param row the row index
+	 * @return the row length
+	 */
+	public int getRowLength(int row) {
+		return rowLengths[row];
+	}
+
+
+	/**
+	 * Converts a row and column into a cell index.
+	 * @param row the row
+	 * @param col the column
+	 * @return the cell index
+	 */
+	public int cell(int row, int col) {
+		return row * width + col;
+	}
+
+
+	/**
+	 * The row of a cell index.
+	 * @param cell the cell index
+	 * @return the row
+	 */
+	public int row(int cell) {
+		return cell / width;
+	}
+
+
+	/**
+	 * The column of a cell index.
+	 * @param cell the cell index
+	 * @return the column
+	 */
+	public int col(int cell) {
+		return cell % width;
+	}
+
+
+	/**
+	 * The change in cell index caused by a step in the given direction.
+	 * @param direction one of PuzzleState.UP, DOWN, LEFT, RIGHT
+	 * @return the cell offset
+	 */
+	public int offset(int direction) {
+		if (direction == PuzzleState.UP) return -width;
+		if (direction == PuzzleState.DOWN) return width;
+		if (direction == PuzzleState.LEFT) return -1;
+		return 1;
+	}
+
+
+	/**
+	 * Determines if a cell is a wall (or lies outside the level).
+	 * @param cell the cell index
+	 * @return true if the cell is a wall
+	 */
+	public boolean isWall(int cell) {
+		return walls[cell];
+	}
+
+
+	/**
+	 * Determines if a cell is a goal.
+	 * @param cell the cell index
+	 * @return true if the cell is a goal
+	 */
+	public boolean isGoal(int cell) {
+		return goals[cell];
+	}
+
+
+	/**
+	 * Determines if a cell is a dead square: a floor square from which a box can
+	 * never be pushed onto any goal, no matter where the other boxes are.
+	 * @param cell the cell index
+	 * @return true if a box on the cell can never reach a goal
+	 */
+	public boolean isDeadSquare(int cell) {
+		return dead[cell];
+	}
+
+
+	/**
+	 * The fewest pushes needed to move a box from a cell onto a goal, ignoring
+	 * every other box. This never overestimates the real number of pushes.
+	 * @param goal the index of the goal in getGoals()
+	 * @param cell the cell index of the box
+	 * @return the push distance, or UNREACHABLE
+	 */
+	public int getPushDistance(int goal, int cell) {
+		return pushDistances[goal][cell];
+	}
+
+
+	// private method, pulls a box backward from a goal, counting the pulls needed to reach each square
+	private int[] computePushDistances(int goal) {
+		int[] distances = new int[width * height];
+		Arrays.fill(distances, UNREACHABLE);
+		int[] queue = new int[width * height];
+		int head = 0, tail = 0;
+		distances[goal] = 0;
+		queue[tail++] = goal;
+		while (head < tail) {
+			int cell = queue[head++];
+			for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+				// pulling the box one square away needs room for the player behind it
+				int from = cell - offset(d);
+				int behind = from - offset(d);
+				if (inside(behind) && !walls[from] && !walls[behind] && distances[from] == UNREACHABLE) {
+					distances[from] = distances[cell] + 1;
+					queue[tail++] = from;
+				}
+			}
+		}
+		return distances;
+	}
+
+
+	// private method, a floor square is dead if no goal can be reached from it
+	private boolean[] computeDeadSquares() {
+		boolean[] deadSquares = new boolean[width * height];
+		for (int i = 0; i < deadSquares.length; i++) {
+			deadSquares[i] = !walls[i];
+			for (int g = 0; g < pushDistances.length && deadSquares[i]; g++) {
+				if (pushDistances[g][i] != UNREACHABLE) deadSquares[i] = false;
+			}
+		}
+		return deadSquares;
+	}
+
+
+	// private method, the floor inside the outer walls: every square that is not a wall and
+	// cannot be reached from the edge of the grid without crossing one
+	private boolean[] computeInterior() {
+		boolean[] outside = new boolean[width * height];
+		int[] queue = new int[width * height];
+		int head = 0, tail = 0;
+		for (int i = 0; i < height; i++) {
+			for (int j = 0; j < width; j++) {
+				int cell = cell(i, j);
+				if ((i == 0 || j == 0 || i == height - 1 || j == width - 1) && !walls[cell]) {
+					outside[cell] = true;
+					queue[tail++] = cell;
+				}
+			}
+		}
+		while (head < tail) {
+			int cell = queue[head++];
+			for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+				int next = cell + offset(d);
+				// steps off the left and right edges would wrap onto the next row
+				if (!inside(next) || Math.abs(col(next) - col(cell)) > 1) continue;
+				if (!walls[next] && !outside[next]) {
+					outside[next] = true;
+					queue[tail++] = next;
+				}
+			}
+		}
+		boolean[] interior = new boolean[width * height];
+		for (int i = 0; i < interior.length; i++) {
+			interior[i] = !walls[i] && !outside[i];
+		}
+		return interior;
+	}
+
+
+	// private method, finds the squares where a box pushed in a direction is in a tunnel: the
+	// box and the player behind it both have walls on either side, and the box is off the goals
+	private boolean[][] computeTunnels(boolean[] interior) {
+		boolean[][] found = new boolean[PuzzleState.RIGHT + 1][width * height];
+		for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+			int side = d == PuzzleState.UP || d == PuzzleState.DOWN ? 1 : width;
+			for (int cell = 0; cell < interior.length; cell++) {
+				int behind = cell - offset(d);
+				if (!interior[cell] || goals[cell] || !inside(behind) || !interior[behind]) continue;
+				found[d][cell] = walls[cell - side] && walls[cell + side]
+						&& walls[behind - side] && walls[behind + side];
+			}
+		}
+		return found;
+	}
+
+
+	// private method, looks for a goal room: the smallest area holding every goal that is cut off
+	// from the rest of the interior by one square, then the order its goals can be filled in
+	private void computeGoalRoom(boolean[] interior) {
+		if (goalCells.length == 0) return;
+		boolean[] best = null;
+		int entrance = -1, bestSize = ROOM_LIMIT + 1;
+		for (int cell = 0; cell < interior.length; cell++) {
+			if (!interior[cell] || goals[cell]) continue;
+			boolean[] area = flood(interior, goalCells[0], cell);
+			int size = 0;
+			for (boolean in : area) {
+				if (in) size++;
+			}
+			boolean allGoals = true, cut = false;
+			for (int g : goalCells) {
+				allGoals &= area[g];
+			}
+			for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+				int next = cell + offset(d);
+				if (interior[next] && !area[next]) cut = true;
+			}
+			if (allGoals && cut && size < bestSize) {
+				best = area;
+				entrance = cell;
+				bestSize = size;
+			}
+		}
+		if (best == null) return;
+		// take the boxes back out of a full room one at a time; filling goes in the reverse order
+		boolean[] filled = new boolean[width * height];
+		for (int g : goalCells) {
+			filled[g] = true;
+		}
+		int[] order = new int[goalCells.length];
+		String[][] moves = new String[goalCells.length][];
+		for (int k = goalCells.length - 1; k >= 0; k--) {
+			for (int g : goalCells) {
+				if (!filled[g]) continue;
+				filled[g] = false;
+				String[] carry = new String[PuzzleState.RIGHT + 1];
+				boolean any = false;
+				for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+					int from = entrance - offset(d);
+					if (interior[from] && !best[from]) {
+						carry[d] = carry(best, entrance, from, g, filled);
+						any |= carry[d] != null;
+					}
+				}
+				if (any) {
+					order[k] = g;
+					moves[k] = carry;
+					break;
+				}
+				filled[g] = true;
+			}
+			if (moves[k] == null) return;
+		}
+		roomEntrance = entrance;
+		room = best;
+		roomSlots = order;
+		roomMoves = moves;
+	}
+
+
+	// private method, the interior squares reachable from a cell without crossing a blocked square
+	private boolean[] flood(boolean[] interior, int start, int blocked) {
+		boolean[] reached = new boolean[width * height];
+		int[] queue = new int[width * height];
+		int head = 0, tail = 0;
+		reached[start] = true;
+		queue[tail++] = start;
+		while (head < tail) {
+			int cell = queue[head++];
+			for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+				int next = cell + offset(d);
+				if (interior[next] && next != blocked && !reached[next]) {
+					reached[next] = true;
+					queue[tail++] = next;
+				}
+			}
+		}
+		return reached;
+	}
+
+
+	// private method, the fewest moves that carry a box from the entrance of the goal room onto a
+	// goal, the player starting outside on a given square, around the boxes already in the room;
+	// searched over box and player positions, or null if the box cannot get there
+	private String carry(boolean[] area, int entrance, int start, int goal, boolean[] filled) {
+		// number the squares the box and player may use
+		int[] index = new int[width * height];
+		Arrays.fill(index, -1);
+		int[] cells = new int[ROOM_LIMIT + 2];
+		int n = 0;
+		for (int cell = 0; cell < area.length; cell++) {
+			if ((area[cell] || cell == entrance || cell == start) && !filled[cell]) {
+				index[cell] = n;
+				cells[n++] = cell;
+			}
+		}
+		int[] cameFrom = new int[n * n];
+		Arrays.fill(cameFrom, -1);
+		int[] queue = new int[n * n];
+		int head = 0, tail = 0, first = index[entrance] * n + index[start];
+		cameFrom[first] = first;
+		queue[tail++] = first;
+		while (head < tail) {
+			int state = queue[head++];
+			int box = cells[state / n], player = cells[state % n];
+			if (box == goal) {
+				StringBuilder path = new StringBuilder();
+				for (int at = state; at != first; at = cameFrom[at]) {
+					int before = cameFrom[at];
+					int step = cells[at % n] - cells[before % n];
+					char letter = step == -width ? 'u' : step == width ? 'd' : step == -1 ? 'l' : 'r';
+					path.append(before / n != at / n ? Character.toUpperCase(letter) : letter);
+				}
+				return path.reverse().toString();
+			}
+			for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+				int next = player + offset(d), pushed = box;
+				if (index[next] < 0) continue;
+				if (next == box) {
+					pushed = box + offset(d);
+					// the box stays in the room (the entrance counts) and off the start square
+					if (index[pushed] < 0 || pushed == start) continue;
+				}
+				int to = index[pushed] * n + index[next];
+				if (cameFrom[to] < 0) {
+					cameFrom[to] = state;
+					queue[tail++] = to;
+				}
+			}
+		}
+		return null;
+	}
+
+
+	// private method, maps the bounding box of the interior through one of the TRANSFORMS,
+	// returning the cell map if it takes floor to floor and goals to goals, or null if not
+	private int[] computeSymmetry(boolean[] interior, int[] transform) {
+		int top = height, bottom = -1, left = width, right = -1;
+		for (int cell = 0; cell < interior.length; cell++) {
+			if (interior[cell]) {
+				top = Math.min(top, row(cell));
+				bottom = Math.max(bottom, row(cell));
+				left = Math.min(left, col(cell));
+				right = Math.max(right, col(cell));
+			}
+		}
+		int rows = bottom - top + 1, cols = right - left + 1;
+		if (bottom < 0 || (transform[0] == 0 && rows != cols)) return null;
+		int[] map = new int[width * height];
+		for (int cell = 0; cell < map.length; cell++) {
+			map[cell] = cell;
+		}
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				int newRow = axis(transform[0], i, rows) + axis(transform[1], j, rows);
+				int newCol = axis(transform[2], i, cols) + axis(transform[3], j, cols);
+				int from = cell(top + i, left + j), to = cell(top + newRow, left + newCol);
+				if (interior[from] != interior[to] || (interior[from] && goals[from] != goals[to])) {
+					return null;
+				}
+				map[from] = to;
+			}
+		}
+		return map;
+	}
+
+
+	// private method, one term of a transformed coordinate: the coordinate as is (1),
+	// flipped within a side of the given length (-1), or nothing (0)
+	private static int axis(int sign, int coordinate, int length) {
+		return sign == 0 ? 0 : sign > 0 ? coordinate : length - 1 - coordinate;
+	}
+
+
+	// private method, whether a cell index lies on the board
+	private boolean inside(int cell) {
+		return cell >= 0 && cell < width * height;
+	}
+
+
+	/**
+	 * The cell indices of every goal on the board.
+	 * @return the goal cells
+	 */
+	public int[] getGoals() {
+		return goalCells;
+	}
+
+
+	/**
+	 * The number of rotations and reflections, other than leaving it as it is, that map
+	 * the level onto itself: walls to walls, floor to floor and goals to goals. The floor
+	 * outside the outer walls is ignored, so the level only has to be symmetric inside.
+	 * @return the number of symmetries, from 0 to 7
+	 */
+	public int getSymmetryCount() {
+		return symmetries.length;
+	}
+
+
+	/**
+	 * Where a cell of the level goes under one of its symmetries.
+	 * @param symmetry the index of the symmetry, below getSymmetryCount()
+	 * @param cell the cell index
+	 * @return the cell it maps to
+	 */
+	public int symmetry(int symmetry, int cell) {
+		return symmetries[symmetry][cell];
+	}
+
+
+	/**
+	 * Where a step in a direction goes under one of the level's symmetries.
+	 * @param symmetry the index of the symmetry, below getSymmetryCount()
+	 * @param direction one of PuzzleState.UP, DOWN, LEFT, RIGHT
+	 * @return the direction it maps to
+	 */
+	public int symmetryDirection(int symmetry, int direction) {
+		return directions[symmetry][direction];
+	}
+
+
+	/**
+	 * A short description of one of the level's symmetries, such as "rotate 180".
+	 * @param symmetry the index of the symmetry, below getSymmetryCount()
+	 * @return the name of the symmetry
+	 */
+	public String getSymmetryName(int symmetry) {
+		return symmetryNames[symmetry];
+	}
+
+
+	/**
+	 * Determines if a box pushed onto a cell in a direction ends up in a tunnel: a one-wide
+	 * corridor, off the goals, where the player behind it can do nothing but push it on.
+	 * @param cell the cell index of the box after the push
+	 * @param direction the direction of the push
+	 * @return true if the box is in a tunnel
+	 */
+	public boolean isTunnel(int cell, int direction) {
+		return tunnels[direction][cell];
+	}
+
+
+	/**
+	 * The square through which a box enters the goal room, or -1 if the level has none.
+	 * A goal room holds every goal and is reached from the rest of the level only through
+	 * its entrance, and its goals can be filled one at a time in a fixed order.
+	 * @return the cell index of the entrance
+	 */
+	public int getGoalRoomEntrance() {
+		return roomEntrance;
+	}
+
+
+	/**
+	 * Determines if a cell lies in the goal room (not counting its entrance).
+	 * @param cell the cell index
+	 * @return true if the cell is in the goal room
+	 */
+	public boolean isInGoalRoom(int cell) {
+		return room != null && room[cell];
+	}
+
+
+	/**
+	 * The goals of the goal room in the order they are filled: a box brought in when
+	 * the first k slots hold boxes goes to slot k.
+	 * @return the goal cells in fill order, or null if the level has no goal room
+	 */
+	public int[] getGoalRoomSlots() {
+		return roomSlots;
+	}
+
+
+	/**
+	 * The moves that carry a box from the entrance of the goal room to one of its slots,
+	 * when the box was just pushed onto the entrance in a given direction and the slots
+	 * before it are filled. The moves start where that push left the player.
+	 * @param slot the index of the slot in getGoalRoomSlots()
+	 * @param direction the direction the box was pushed onto the entrance
+	 * @return the move letters (upper case for a push), or null if the box cannot be carried in that way
+	 */
+	public String getGoalRoomMoves(int slot, int direction) {
+		return roomMoves[slot][direction];
+	}
+
+
+	/**
+	 * The zobrist key for a box standing on a cell.
+	 * @param cell the cell index
+	 * @return the key
+	 */
+	public long boxKey(int cell) {
+		return boxKeys[cell];
+	}
+
+
+	/**
+	 * The zobrist key for the player standing on a cell.
+	 * @param cell the cell index
+	 * @return the key
+	 */
+	public long playerKey(int cell) {
+		return playerKeys[cell];
+	}
+
+}
@@ -0,0 +1,153 @@
+import java.util.Arrays;
+
+/**
+ * A fringe for the informed searches, ordered like a priority queue of PuzzleStates
+ * but kept in buckets instead of a heap. The evaluation function f and the estimate h
+ * are small non-negative integers, so each (f, h) pair gets a bucket of its own: an
+ * array indexed by f holds, for each f, the buckets of its states indexed by h. The
+ * buckets are taken lowest f first and lowest h within it, and within a bucket the
+ * state added last comes out first. Both levels grow with the largest f and h seen,
+ * so the queue takes space linear in them.
+ * <p>
+ * The states are held in a slot array, and each bucket is a linked list of slots
+ * threaded through an int array, with freed slots reused, so adding and removing a
+ * state takes constant time and allocates nothing once the arrays have grown.
+ * @author Andrew Goldin
+ */
+public class BucketQueue {
+
+	// heads[f][h]: the slot of the state added last to the bucket, or -1; a row is
+	// created the first time a state with its f is added
+	private int[][] heads = new int[64][];
+
+	// the number of states with each f, and for each f no bucket below lowestH[f] holds a state
+	private int[] count = new int[64], lowestH = new int[64];
+
+	// states[slot] and next[slot]: a state and the slot after it in its bucket (or in the
+	// free list, for empty slots)
+	private PuzzleState[] states = new PuzzleState[256];
+	private int[] next = new int[256];
+
+	private int free = -1, used, size;
+
+	// no f below this one has a state
+	private int lowest;
+
+
+	/**
+	 * Adds a state, in the bucket of its evaluation function and estimate.
+	 * @param state the state to add
+	 */
+	public void add(PuzzleState state) {
+		add(state, state.getPriority());
+	}
+
+
+	/**
+	 * Adds a state under an evaluation of the caller's own, such as weighted A*'s
+	 * g + w * h, in place of the one it was created with.
+	 * @param state the state to add
+	 * @param priority the evaluation function to order the state by
+	 */
+	public void add(PuzzleState state, int priority) {
+		int f = Math.max(0, priority), h = Math.max(0, state.getEstimate());
+		if (f >= heads.length) {
+			int length = Math.max(f + 1, 2 * heads.length);
+			heads = Arrays.copyOf(heads, length);
+			count = Arrays.copyOf(count, length);
+			lowestH = Arrays.copyOf(lowestH, length);
+		}
+		int[] row = heads[f];
+		if (row == null || h >= row.length) {
+			int old = row == null ? 0 : row.length;
+			row = row == null ? new int[Math.max(h + 1, 16)] : Arrays.copyOf(row, Math.max(h + 1, 2 * old));
+			Arrays.fill(row, old, row.length, -1);
+			heads[f] = row;
+		}
+		int slot = free;
+		if (slot >= 0) {
+			free = next[slot];
+		}
+		else {
+			if (used == states.length) {
+				states = Arrays.copyOf(states, 2 * used);
+				next = Arrays.copyOf(next, 2 * used);
+			}
+			slot = used++;
+		}
+		states[slot] = state;
+		next[slot] = row[h];
+		row[h] = slot;
+		if (count[f]++ == 0 || h < lowestH[f]) {
+			lowestH[f] = h;
+		}
+		if (size++ == 0 || f < lowest) {
+			lowest = f;
+		}
+	}
+
+
+	/**
+	 * Removes the state with the lowest evaluation function, and of those the lowest
+	 * estimate; of those, the one added last.
+	 * @return the state, or null if the queue is empty
+	 */
+	public PuzzleState remove() {
+		if (size == 0) {
+			return null;
+		}
+		while (count[lowest] == 0) {
+			lowest++;
+		}
+		int[] row = heads[lowest];
+		int h = lowestH[lowest];
+		while (row[h] < 0) {
+			h++;
+		}
+		lowestH[lowest] = h;
+		int slot = row[h];
+		PuzzleState state = states[slot];
+		row[h] = next[slot];
+		states[slot] = null;
+		next[slot] = free;
+		free = slot;
+		count[lowest]--;
+		size--;
+		return state;
+	}
+
+
+	/**
+	 * Determines if the queue holds no states.
+	 * @return true if the queue is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+
+	/**
+	 * The number of states in the queue.
+	 * @return the number of states
+	 */
+	public int size() {
+		return size;
+	}
+
+
+	/**
+	 * Removes every state, keeping the arrays for reuse.
+	 */
+	public void clear() {
+		for (int[] row : heads) {
+			if (row != null) Arrays.fill(row, -1);
+		}
+		Arrays.fill(count, 0);
+		Arrays.fill(states, 0, used, null);
+		free = -1;
+		used = 0;
+		size = 0;
+		lowest = 0;
+	}
+
+}
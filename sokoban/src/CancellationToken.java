@@ -0,0 +1,28 @@
+/**
+ * Stops a running search from another thread. The solver checks the token once per
+ * expansion; after cancel() the search stops as soon as it next looks, and reports
+ * the best partial state it reached. A token stays cancelled once cancelled.
+ * @author Andrew Goldin
+ */
+public class CancellationToken {
+
+	private volatile boolean cancelled;
+
+
+	/**
+	 * Asks every search watching this token to stop.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+
+	/**
+	 * Whether the token has been cancelled.
+	 * @return true after cancel()
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+}
@@ -0,0 +1,225 @@
+import java.util.Arrays;
+
+/**
+ * Detects deadlocks caused by a box push: positions from which the puzzle can
+ * no longer be solved, even though no box is standing on a dead square.
+ * Only the neighbourhood of the box that was just pushed is examined.
+ * <p>
+ * Three patterns are recognized:
+ * - a 2x2 block of walls and boxes with a box that is not on a goal
+ * - a frozen box: one that can never move again, because it is blocked on both
+ *   axes by walls, dead squares or other frozen boxes, and is not on a goal
+ * - a sealed corral: a region the player cannot reach, bounded only by walls and
+ *   frozen boxes, that still contains an empty goal (more of them than the level
+ *   has goals beyond one per box, as those may stay empty)
+ * <p>
+ * A detector also counts how many checks it ran, how many found a deadlock,
+ * and how long they took. It is not thread safe; use one per search.
+ * @author Andrew Goldin
+ */
+public class DeadlockDetector {
+
+	private final Board board;
+	private long checks, hits, nanos;
+
+	// scratch space, reused between checks
+	private final boolean[] visited, reached, corral;
+	private final int[] queue, frozen;
+	private int numFrozen, budget;
+
+	// the most boxes examined in one freeze check; past this, boxes are assumed movable
+	private static final int FREEZE_BUDGET = 64;
+
+
+	/**
+	 * Creates a detector for a level.
+	 * @param board the level the detector will check states of
+	 */
+	public DeadlockDetector(Board board) {
+		this.board = board;
+		visited = new boolean[board.getSize()];
+		reached = new boolean[board.getSize()];
+		corral = new boolean[board.getSize()];
+		queue = new int[board.getSize()];
+		frozen = new int[board.getSize()];
+	}
+
+
+	/**
+	 * Determines if a state is deadlocked because of the box on a given cell,
+	 * which is normally the box that was just pushed.
+	 * @param state the state after the push
+	 * @param box the cell of the pushed box
+	 * @return true if the state can no longer be solved
+	 */
+	public boolean isDeadlocked(PuzzleState state, int box) {
+		long start = System.nanoTime();
+		boolean deadlocked = isBlockDeadlock(state, box) || isFreezeDeadlock(state, box)
+				|| isCorralDeadlock(state, box);
+		nanos += System.nanoTime() - start;
+		checks++;
+		if (deadlocked) hits++;
+		return deadlocked;
+	}
+
+
+	/**
+	 * The number of checks run so far.
+	 * @return the number of checks
+	 */
+	public long getChecks() {
+		return checks;
+	}
+
+
+	/**
+	 * The number of checks that found a deadlock.
+	 * @return the number of deadlocks found
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+
+	/**
+	 * The total time spent checking, in nanoseconds.
+	 * @return the time spent
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+
+
+	/**
+	 * Adds the counters of another detector to this one, for combining the
+	 * statistics of several searches.
+	 * @param other the detector to add
+	 */
+	public void addCounts(DeadlockDetector other) {
+		checks += other.checks;
+		hits += other.hits;
+		nanos += other.nanos;
+	}
+
+
+	// private method, looks for a 2x2 block of walls and boxes around the box
+	private boolean isBlockDeadlock(PuzzleState state, int box) {
+		int w = board.getWidth();
+		int[] corners = { box - w - 1, box - w, box - 1, box };
+		for (int i = 0; i < corners.length; i++) {
+			int topLeft = corners[i];
+			int[] square = { topLeft, topLeft + 1, topLeft + w, topLeft + w + 1 };
+			boolean blocked = true, offGoal = false;
+			for (int j = 0; j < square.length && blocked; j++) {
+				if (board.isWall(square[j])) continue;
+				if (!state.hasBox(square[j])) blocked = false;
+				else if (!board.isGoal(square[j])) offGoal = true;
+			}
+			if (blocked && offGoal) return true;
+		}
+		return false;
+	}
+
+
+	// private method, a frozen box, or a box frozen along with it, that is not on a goal
+	private boolean isFreezeDeadlock(PuzzleState state, int box) {
+		numFrozen = 0;
+		budget = FREEZE_BUDGET;
+		if (!isFrozen(state, box)) {
+			return false;
+		}
+		for (int i = 0; i < numFrozen; i++) {
+			if (!board.isGoal(frozen[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	// private method, whether a box can never move again; boxes being checked count as walls
+	private boolean isFrozen(PuzzleState state, int box) {
+		if (budget-- <= 0) {
+			return false;
+		}
+		int mark = numFrozen;
+		visited[box] = true;
+		boolean result = isBlocked(state, box, 1) && isBlocked(state, box, board.getWidth());
+		visited[box] = false;
+		if (result) {
+			frozen[numFrozen++] = box;
+		}
+		else {
+			// anything found frozen below assumed this box would never move
+			numFrozen = mark;
+		}
+		return result;
+	}
+
+
+	// private method, whether a box is blocked along one axis (offset 1 horizontal, width vertical)
+	private boolean isBlocked(PuzzleState state, int box, int offset) {
+		int a = box - offset, b = box + offset;
+		if (board.isWall(a) || board.isWall(b)) return true;
+		if (board.isDeadSquare(a) && board.isDeadSquare(b)) return true;
+		if (state.hasBox(a) && (visited[a] || isFrozen(state, a))) return true;
+		if (state.hasBox(b) && (visited[b] || isFrozen(state, b))) return true;
+		return false;
+	}
+
+
+	// private method, an unreachable region next to the box, sealed by frozen boxes, holding empty goals that must be filled
+	private boolean isCorralDeadlock(PuzzleState state, int box) {
+		flood(state, state.getPlayerPosition(), reached);
+		for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+			int side = box + board.offset(d);
+			if (board.isWall(side) || state.hasBox(side) || reached[side]) continue;
+			flood(state, side, corral);
+			if (isSealed(state)) return true;
+		}
+		return false;
+	}
+
+
+	// private method, whether the corral holds more empty goals than the level has goals to spare
+	// (goals beyond one per box may stay empty) and all boxes around it are frozen
+	private boolean isSealed(PuzzleState state) {
+		int emptyGoals = 0, spare = board.getGoals().length - state.getBoxes().length;
+		for (int i = 0; i < corral.length && emptyGoals <= spare; i++) {
+			if (corral[i] && board.isGoal(i)) emptyGoals++;
+		}
+		if (emptyGoals <= spare) return false;
+		for (int i = 0; i < corral.length; i++) {
+			if (!corral[i]) continue;
+			for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+				int next = i + board.offset(d);
+				if (state.hasBox(next)) {
+					numFrozen = 0;
+					budget = FREEZE_BUDGET;
+					if (!isFrozen(state, next)) return false;
+				}
+			}
+		}
+		return true;
+	}
+
+
+	// private method, marks every floor square reachable from a cell without moving a box
+	private void flood(PuzzleState state, int start, boolean[] marks) {
+		Arrays.fill(marks, false);
+		int head = 0, tail = 0;
+		queue[tail++] = start;
+		marks[start] = true;
+		while (head < tail) {
+			int cell = queue[head++];
+			for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+				int next = cell + board.offset(d);
+				if (!marks[next] && !board.isWall(next) && !state.hasBox(next)) {
+					marks[next] = true;
+					queue[tail++] = next;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,209 @@
+import java.util.Arrays;
+
+/**
+ * Estimates the cost to goal as the cheapest way of assigning every box to its
+ * own goal, where moving a box onto a goal costs its push distance on the
+ * static board. The assignment is found with the Hungarian algorithm, so the
+ * estimate never exceeds the real number of pushes (or moves) still needed.
+ * <p>
+ * Children are evaluated incrementally: the optimal assignment of the parent
+ * is kept, and since a move changes the position of at most one box, only
+ * that box's row is re-solved (one augmenting path instead of a full solve).
+ * A heuristic object keeps scratch arrays between calls and is not thread safe.
+ * @author Andrew Goldin
+ */
+public class MatchingHeuristic {
+
+	/**
+	 * Estimate of a state in which the boxes cannot all be matched to goals.
+	 * Such a state can never be solved.
+	 */
+	public static final int INFEASIBLE = Integer.MAX_VALUE;
+
+	// cost of a box/goal pair the box can never reach; larger than any real assignment
+	private static final int INF = 1 << 20;
+
+	private final Board board;
+	private final int numGoals;
+
+	// the solved assignment of the last parent: 1-indexed, rows are boxes and columns goals
+	private PuzzleState cachedFor;
+	private int cachedCost;
+	private int[] rowCell, u, v, p;
+
+	// scratch space for a child's assignment
+	private int[] childCell, childU, childV, childP, minv, way;
+	private boolean[] used;
+
+
+	/**
+	 * Creates a matching heuristic for a level.
+	 * @param board the level to estimate states of
+	 */
+	public MatchingHeuristic(Board board) {
+		this.board = board;
+		numGoals = board.getGoals().length;
+		v = new int[numGoals + 1];
+		p = new int[numGoals + 1];
+		childV = new int[numGoals + 1];
+		childP = new int[numGoals + 1];
+		minv = new int[numGoals + 1];
+		way = new int[numGoals + 1];
+		used = new boolean[numGoals + 1];
+	}
+
+
+	/**
+	 * Computes the estimate of a state from scratch.
+	 * @param state the state to evaluate
+	 * @return the minimum total push distance, or INFEASIBLE
+	 */
+	public int estimate(PuzzleState state) {
+		prime(state);
+		return cachedCost;
+	}
+
+
+	/**
+	 * Computes the estimate of a child state from the assignment of its parent.
+	 * The child may differ from the parent by at most one box.
+	 * @param parent the state the child was generated from
+	 * @param child the state to evaluate
+	 * @return the minimum total push distance, or INFEASIBLE
+	 */
+	public int estimate(PuzzleState parent, PuzzleState child) {
+		if (parent != cachedFor) {
+			prime(parent);
+		}
+		short[] before = parent.getBoxes(), after = child.getBoxes();
+		int removed = -1, added = -1;
+		for (int i = 0, j = 0; i < before.length || j < after.length;) {
+			if (j == after.length || (i < before.length && before[i] < after[j])) removed = i++;
+			else if (i == before.length || after[j] < before[i]) added = after[j++];
+			else { i++; j++; }
+		}
+		if (removed < 0) {
+			return cachedCost;
+		}
+		// more goals than boxes: a freed goal may keep a stale potential, so solve from scratch
+		if (numGoals > before.length) {
+			return solve(child.getBoxes());
+		}
+		int n = before.length;
+		System.arraycopy(rowCell, 0, childCell, 0, n + 1);
+		System.arraycopy(u, 0, childU, 0, n + 1);
+		System.arraycopy(v, 0, childV, 0, numGoals + 1);
+		System.arraycopy(p, 0, childP, 0, numGoals + 1);
+		int row = removed + 1;
+		childCell[row] = added;
+		// unassign the moved box and give it the largest feasible potential
+		int min = Integer.MAX_VALUE;
+		for (int j = 1; j <= numGoals; j++) {
+			if (childP[j] == row) childP[j] = 0;
+			min = Math.min(min, cost(childCell, row, j) - childV[j]);
+		}
+		childU[row] = min;
+		augment(row, childCell, childU, childV, childP);
+		return totalCost(childCell, childP);
+	}
+
+
+	// private method, solves and caches the assignment of a state
+	private void prime(PuzzleState state) {
+		int n = state.getBoxes().length;
+		if (rowCell == null || rowCell.length != n + 1) {
+			rowCell = new int[n + 1];
+			u = new int[n + 1];
+			childCell = new int[n + 1];
+			childU = new int[n + 1];
+		}
+		cachedCost = solve(state.getBoxes());
+		System.arraycopy(childCell, 0, rowCell, 0, n + 1);
+		System.arraycopy(childU, 0, u, 0, n + 1);
+		System.arraycopy(childV, 0, v, 0, numGoals + 1);
+		System.arraycopy(childP, 0, p, 0, numGoals + 1);
+		cachedFor = state;
+	}
+
+
+	// private method, full Hungarian solve into the child scratch arrays
+	private int solve(short[] boxes) {
+		int n = boxes.length;
+		if (n > numGoals) {
+			return INFEASIBLE;
+		}
+		for (int i = 1; i <= n; i++) {
+			childCell[i] = boxes[i - 1];
+		}
+		Arrays.fill(childU, 0);
+		Arrays.fill(childV, 0);
+		Arrays.fill(childP, 0);
+		for (int i = 1; i <= n; i++) {
+			augment(i, childCell, childU, childV, childP);
+		}
+		return totalCost(childCell, childP);
+	}
+
+
+	// private method, finds a shortest augmenting path for an unassigned row
+	private void augment(int row, int[] cells, int[] pu, int[] pv, int[] pp) {
+		pp[0] = row;
+		int j0 = 0;
+		Arrays.fill(minv, Integer.MAX_VALUE);
+		Arrays.fill(used, false);
+		do {
+			used[j0] = true;
+			int i0 = pp[j0], delta = Integer.MAX_VALUE, j1 = 0;
+			for (int j = 1; j <= numGoals; j++) {
+				if (!used[j]) {
+					int cur = cost(cells, i0, j) - pu[i0] - pv[j];
+					if (cur < minv[j]) {
+						minv[j] = cur;
+						way[j] = j0;
+					}
+					if (minv[j] < delta) {
+						delta = minv[j];
+						j1 = j;
+					}
+				}
+			}
+			for (int j = 0; j <= numGoals; j++) {
+				if (used[j]) {
+					pu[pp[j]] += delta;
+					pv[j] -= delta;
+				}
+				else {
+					minv[j] -= delta;
+				}
+			}
+			j0 = j1;
+		} while (pp[j0] != 0);
+		do {
+			int j1 = way[j0];
+			pp[j0] = pp[j1];
+			j0 = j1;
+		} while (j0 != 0);
+	}
+
+
+	// private method, the cost of pairing a row's box with a goal column
+	private int cost(int[] cells, int row, int goal) {
+		int distance = board.getPushDistance(goal - 1, cells[row]);
+		return distance == Board.UNREACHABLE ? INF : distance;
+	}
+
+
+	// private method, sums the assignment, or INFEASIBLE if it needs an unreachable pair
+	private int totalCost(int[] cells, int[] pp) {
+		int sum = 0;
+		for (int j = 1; j <= numGoals; j++) {
+			if (pp[j] != 0) {
+				int c = cost(cells, pp[j], j);
+				if (c == INF) return INFEASIBLE;
+				sum += c;
+			}
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,381 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * A pattern database over pairs of boxes. For every two squares a box can stand on
+ * and every square of the player, it holds the fewest pushes that move both boxes
+ * onto goals when they are the only boxes on the board. The costs are found once per
+ * level by pulling pairs of boxes backward from every pair of goals.
+ * <p>
+ * The pushes of two boxes in a real solution also solve the pair on its own, so the
+ * cost of any set of disjoint pairs (plus the push distance of each unpaired box)
+ * never exceeds the real number of pushes still needed. The estimate pairs boxes up
+ * greedily by how much their pair cost adds over their separate push distances.
+ * A pair that can never be solved marks the whole state as unsolvable.
+ * <p>
+ * The table takes one byte per entry and is written to a file next to the level, so
+ * later solves of the same level only memory-map it. A level whose table would not
+ * fit in one array is refused. The table is read-only once built, but each database
+ * keeps scratch space for its estimates, so a thread needs a database of its own;
+ * share makes one that uses the same table.
+ * @author Andrew Goldin
+ */
+public class PatternDatabase {
+
+	/**
+	 * Estimate of a state in which some pair of boxes can never be solved.
+	 */
+	public static final int INFEASIBLE = Integer.MAX_VALUE;
+
+	// file layout: magic, version, width, height, floor squares, level fingerprint, then the table
+	private static final int MAGIC = 0x53504442, VERSION = 1, HEADER = 32;
+
+	// table value of a pair that can never be solved; real costs are capped one below it
+	private static final int UNSOLVABLE = 255;
+
+	// the largest table that fits in one array (and one mapped buffer) with its header
+	private static final long MAX_TABLE = Integer.MAX_VALUE - 8 - HEADER;
+
+	private final Board board;
+	private final int[] floorIndex, floorCells;
+	private final int n;
+	private final ByteBuffer table;
+
+	// scratch space of estimate, reused between calls: the push distance of each box, the
+	// gain of each pair of boxes, and the boxes already paired
+	private int[] single;
+	private long[] gains;
+	private boolean[] paired;
+
+
+	/**
+	 * Loads the pattern database of a level, building it (and writing it to the
+	 * given file) if the file is missing or belongs to a different level.
+	 * @param start the start state of the level
+	 * @param file where the database is kept, or null to build it in memory only
+	 * @throws IllegalArgumentException if the level has too many squares for the table to fit in an array
+	 */
+	public PatternDatabase(PuzzleState start, File file) {
+		board = start.getBoard();
+		floorIndex = new int[board.getSize()];
+		Arrays.fill(floorIndex, -1);
+		floorCells = interior(start.getPlayerPosition());
+		n = floorCells.length;
+		if (tableSize(n) > MAX_TABLE) {
+			throw new IllegalArgumentException("pattern database of " + n + " squares is too large");
+		}
+		for (int i = 0; i < n; i++) {
+			floorIndex[floorCells[i]] = i;
+		}
+		long fingerprint = fingerprint(start.getPlayerPosition());
+		ByteBuffer loaded = file == null ? null : map(file, fingerprint);
+		if (loaded == null) {
+			byte[] built = build();
+			loaded = file == null ? null : write(file, fingerprint, built);
+			if (loaded == null) {
+				loaded = ByteBuffer.allocate(HEADER + built.length);
+				loaded.position(HEADER);
+				loaded.put(built);
+			}
+		}
+		table = loaded;
+	}
+
+
+	// private constructor, a database on the same table as another, with scratch space of its own
+	private PatternDatabase(PatternDatabase shared) {
+		board = shared.board;
+		floorIndex = shared.floorIndex;
+		floorCells = shared.floorCells;
+		n = shared.n;
+		table = shared.table.duplicate();
+	}
+
+
+	/**
+	 * Makes a database that uses this one's table, for another thread.
+	 * @return a database giving the same estimates
+	 */
+	public PatternDatabase share() {
+		return new PatternDatabase(this);
+	}
+
+
+	// private method, the number of entries in the table of a level with n floor squares
+	private static long tableSize(int n) {
+		return (long) n * (n - 1) / 2 * n;
+	}
+
+
+	/**
+	 * Estimates the pushes still needed to solve a state.
+	 * @param state the state to evaluate
+	 * @return a lower bound on the pushes left, or INFEASIBLE
+	 */
+	public int estimate(PuzzleState state) {
+		short[] boxes = state.getBoxes();
+		int k = boxes.length, player = floorIndex[state.getPlayerPosition()];
+		if (single == null || single.length < k) {
+			single = new int[k];
+			gains = new long[k * (k - 1) / 2];
+			paired = new boolean[k];
+		}
+		int sum = 0;
+		for (int i = 0; i < k; i++) {
+			single[i] = nearestGoal(boxes[i]);
+			if (single[i] == Board.UNREACHABLE) return INFEASIBLE;
+			sum += single[i];
+		}
+		// gain of each pair over its two separate push distances, packed with the pair for sorting
+		int numGains = 0;
+		for (int j = 1; j < k; j++) {
+			for (int i = 0; i < j; i++) {
+				int cost = cost(floorIndex[boxes[i]], floorIndex[boxes[j]], player);
+				if (cost == UNSOLVABLE) return INFEASIBLE;
+				int gain = cost - single[i] - single[j];
+				if (gain > 0) gains[numGains++] = ((long) gain << 32) | (i << 16) | j;
+			}
+		}
+		Arrays.sort(gains, 0, numGains);
+		Arrays.fill(paired, 0, k, false);
+		for (int g = numGains - 1; g >= 0; g--) {
+			int i = (int) (gains[g] >>> 16) & 0xffff, j = (int) gains[g] & 0xffff;
+			if (!paired[i] && !paired[j]) {
+				paired[i] = true;
+				paired[j] = true;
+				sum += (int) (gains[g] >>> 32);
+			}
+		}
+		return sum;
+	}
+
+
+	// private method, the fewest pushes from a cell onto any goal
+	private int nearestGoal(int cell) {
+		int best = Board.UNREACHABLE;
+		for (int g = 0; g < board.getGoals().length; g++) {
+			best = Math.min(best, board.getPushDistance(g, cell));
+		}
+		return best;
+	}
+
+
+	// private method, the table entry of two boxes and the player, by floor index
+	private int cost(int a, int b, int player) {
+		return table.get(HEADER + offset(a, b) + player) & 0xff;
+	}
+
+
+	// private method, where the entries of a pair of floor squares start in the table
+	private int offset(int a, int b) {
+		int lo = Math.min(a, b), hi = Math.max(a, b);
+		return (hi * (hi - 1) / 2 + lo) * n;
+	}
+
+
+	// private method, the cells inside the level: floor reachable from the player with the boxes ignored
+	private int[] interior(int player) {
+		boolean[] inside = new boolean[board.getSize()];
+		int[] queue = new int[board.getSize()];
+		int head = 0, tail = 0;
+		queue[tail++] = player;
+		inside[player] = true;
+		while (head < tail) {
+			int cell = queue[head++];
+			for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+				int next = cell + board.offset(d);
+				if (!inside[next] && !board.isWall(next)) {
+					inside[next] = true;
+					queue[tail++] = next;
+				}
+			}
+		}
+		Arrays.sort(queue, 0, tail);
+		return Arrays.copyOf(queue, tail);
+	}
+
+
+	// private method, identifies the level a stored table was built for
+	private long fingerprint(int player) {
+		long h = board.playerKey(player) ^ ((long) board.getWidth() << 32 | board.getHeight());
+		for (int i = 0; i < board.getSize(); i++) {
+			if (board.isWall(i)) h ^= board.boxKey(i);
+			if (board.isGoal(i)) h ^= Long.rotateLeft(board.playerKey(i), 17);
+		}
+		return h;
+	}
+
+
+	// private method, memory-maps a stored table, or returns null if it is missing or stale
+	private ByteBuffer map(File file, long fingerprint) {
+		if (!file.isFile()) {
+			return null;
+		}
+		RandomAccessFile in = null;
+		try {
+			in = new RandomAccessFile(file, "r");
+			FileChannel channel = in.getChannel();
+			ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (channel.size() != HEADER + tableSize(n) || mapped.getInt(0) != MAGIC
+					|| mapped.getInt(4) != VERSION || mapped.getInt(8) != board.getWidth()
+					|| mapped.getInt(12) != board.getHeight() || mapped.getInt(16) != n
+					|| mapped.getLong(20) != fingerprint) {
+				return null;
+			}
+			return mapped;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			close(in);
+		}
+	}
+
+
+	// private method, stores a table and maps it back, or returns null if the file cannot be written; the
+	// table goes to a temporary file that is then renamed over the old one, so that another solver mapping
+	// or writing the same file never sees it truncated or half written
+	private ByteBuffer write(File file, long fingerprint, byte[] built) {
+		File temp = null;
+		RandomAccessFile out = null;
+		try {
+			temp = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+			out = new RandomAccessFile(temp, "rw");
+			FileChannel channel = out.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			header.putInt(MAGIC).putInt(VERSION).putInt(board.getWidth()).putInt(board.getHeight())
+					.putInt(n).putLong(fingerprint).flip();
+			channel.write(header, 0);
+			channel.write(ByteBuffer.wrap(built), HEADER);
+			out.close();
+			out = null;
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			return map(file, fingerprint);
+		} catch (IOException e) {
+			System.err.println("Could not write pattern database " + file + ": " + e.getMessage());
+			return null;
+		} finally {
+			close(out);
+			if (temp != null) temp.delete();
+		}
+	}
+
+
+	// private method, closes a file quietly; a mapping stays valid after its file is closed
+	private static void close(RandomAccessFile file) {
+		try {
+			if (file != null) file.close();
+		} catch (IOException e) {
+			// nothing left to do with the file
+		}
+	}
+
+
+	// private method, pulls every pair of boxes backward from every pair of goals
+	private byte[] build() {
+		byte[] costs = new byte[(int) tableSize(n)];
+		Arrays.fill(costs, (byte) UNSOLVABLE);
+		boolean[] region = new boolean[board.getSize()], reached = new boolean[board.getSize()];
+		int[] scratch = new int[board.getSize()];
+		// breadth-first over (box, box, top-left square of the player's region), packed into longs
+		long[] queue = new long[1024];
+		int head = 0, tail = 0;
+		int[] goals = board.getGoals();
+		for (int g = 0; g < goals.length; g++) {
+			for (int h = g + 1; h < goals.length; h++) {
+				int a = floorIndex[goals[g]], b = floorIndex[goals[h]];
+				if (a < 0 || b < 0) continue;
+				Arrays.fill(region, false);
+				for (int p = 0; p < n; p++) {
+					int cell = floorCells[p];
+					if (region[cell] || p == a || p == b) continue;
+					flood(cell, floorCells[a], floorCells[b], region, scratch);
+					costs[offset(a, b) + p] = 0;
+					if (tail == queue.length) queue = Arrays.copyOf(queue, queue.length * 2);
+					queue[tail++] = pack(a, b, p);
+				}
+			}
+		}
+		while (head < tail) {
+			long node = queue[head++];
+			int a = (int) (node >>> 40), b = (int) (node >>> 20) & 0xfffff, p = (int) node & 0xfffff;
+			int cost = costs[offset(a, b) + p] & 0xff;
+			int[] pair = { floorCells[a], floorCells[b] };
+			Arrays.fill(region, false);
+			flood(floorCells[p], pair[0], pair[1], region, scratch);
+			for (int x = 0; x < 2; x++) {
+				int box = pair[x], other = pair[1 - x];
+				for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+					// the player stands next to the box and steps away, pulling it along
+					int stand = box - board.offset(d), away = stand - board.offset(d);
+					if (!region[stand] || floorIndex[away] < 0 || away == other) continue;
+					int na = floorIndex[stand], nb = floorIndex[other];
+					int np = floorIndex[topLeft(away, stand, other, reached, scratch)];
+					int at = offset(na, nb) + np;
+					if ((costs[at] & 0xff) != UNSOLVABLE) continue;
+					costs[at] = (byte) Math.min(cost + 1, UNSOLVABLE - 1);
+					if (tail == queue.length) queue = Arrays.copyOf(queue, queue.length * 2);
+					queue[tail++] = pack(na, nb, np);
+				}
+			}
+		}
+		// every square of a region costs the same as its top-left square
+		for (int a = 0; a < n; a++) {
+			for (int b = a + 1; b < n; b++) {
+				int base = offset(a, b);
+				Arrays.fill(region, false);
+				for (int p = 0; p < n; p++) {
+					int cell = floorCells[p];
+					if (region[cell] || p == a || p == b) continue;
+					int count = flood(cell, floorCells[a], floorCells[b], region, scratch);
+					for (int i = 0; i < count; i++) {
+						costs[base + floorIndex[scratch[i]]] = costs[base + p];
+					}
+				}
+			}
+		}
+		return costs;
+	}
+
+
+	// private method, packs a pair and a player square for the build queue
+	private static long pack(int a, int b, int p) {
+		return ((long) a << 40) | ((long) b << 20) | p;
+	}
+
+
+	// private method, marks the player's region around two boxes; the cells are left in queue
+	private int flood(int start, int boxA, int boxB, boolean[] marks, int[] queue) {
+		int head = 0, tail = 0;
+		queue[tail++] = start;
+		marks[start] = true;
+		while (head < tail) {
+			int cell = queue[head++];
+			for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+				int next = cell + board.offset(d);
+				if (!marks[next] && !board.isWall(next) && next != boxA && next != boxB) {
+					marks[next] = true;
+					queue[tail++] = next;
+				}
+			}
+		}
+		return tail;
+	}
+
+
+	// private method, the top-left square of the player's region around two boxes
+	private int topLeft(int start, int boxA, int boxB, boolean[] marks, int[] queue) {
+		Arrays.fill(marks, false);
+		int count = flood(start, boxA, boxB, marks, queue), min = start;
+		for (int i = 0; i < count; i++) {
+			min = Math.min(min, queue[i]);
+		}
+		return min;
+	}
+
+}
@@ -0,0 +1,342 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Races several search strategies on one level, each with its own Solver on its own
+ * thread, since which one is fastest depends heavily on the level. The first strategy
+ * to find a solution wins, or with setOptimal, the first whose solution is known to
+ * be the shortest; the others are then cancelled. If no strategy wins, the shortest
+ * solution found by any of them is taken.
+ * <p>
+ * The strategies share one memory budget: while they run, the states each one holds
+ * are added up, and when the total goes over the budget the strategy holding the most
+ * is dropped, leaving the memory to the others. The time and node budgets apply to
+ * each strategy on its own.
+ * <p>
+ * Usage, through Sokoban.main:
+ * <pre>
+ * java Sokoban &lt;filename&gt; portfolio [strategies=bfs,astar:1,gbfs:2] [optimal] [p] [sym] [macro] [budgets] [s]
+ * </pre>
+ * Each strategy is a search type followed by its parameters, separated by colons, as
+ * they would follow the file name on the command line (astar:3, dfs:200, hdastar:3:4).
+ * @author Andrew Goldin
+ */
+public class PortfolioSolver {
+
+	/**
+	 * The strategies raced when none are named: breadth-first search, A* with the
+	 * manhattan heuristic, and greedy best-first search with the straight line heuristic.
+	 */
+	public static final String DEFAULT_STRATEGIES = "bfs,astar:1,gbfs:2";
+
+	// how often the race is checked for a finished strategy and the shared memory budget, in milliseconds
+	private static final int POLL_MILLIS = 20;
+
+	// how long the cancelled strategies are given to stop before the race returns without them
+	private static final int STOP_MILLIS = 5000;
+
+	private final List<Strategy> strategies = new ArrayList<Strategy>();
+	private final boolean pushLevel, statistics;
+	private final long timeBudget, stateBudget, nodeBudget;
+	private boolean optimal, symmetry, macros;
+	private String levelFile;
+	private Strategy winner;
+	private long runtime;
+
+
+	/**
+	 * Creates a portfolio.
+	 * @param list the strategies as for parseStrategies
+	 * @param pushLevel whether to search at the push level
+	 * @param statistics whether the solvers collect statistics for their reports
+	 * @param timeBudget the longest each strategy may take, in milliseconds, or 0 for no limit
+	 * @param stateBudget the most states all strategies together may hold, or 0 for no limit
+	 * @param nodeBudget the most nodes each strategy may generate, or 0 for no limit
+	 */
+	public PortfolioSolver(List<String[]> list, boolean pushLevel, boolean statistics, long timeBudget,
+			long stateBudget, long nodeBudget) {
+		this.pushLevel = pushLevel;
+		this.statistics = statistics;
+		this.timeBudget = timeBudget;
+		this.stateBudget = stateBudget;
+		this.nodeBudget = nodeBudget;
+		for (String[] search : list) {
+			strategies.add(new Strategy(search));
+		}
+	}
+
+
+	/**
+	 * Reads a list of strategies: search types separated by commas, each followed by
+	 * its parameters separated by colons.
+	 * @param list the strategies, such as "bfs,astar:1,gbfs:2"
+	 * @return the search arguments of each strategy, as for Sokoban.search
+	 */
+	public static List<String[]> parseStrategies(String list) {
+		List<String[]> searches = new ArrayList<String[]>();
+		for (String item : list.split(",")) {
+			if (item.trim().length() == 0) continue;
+			String[] parts = item.trim().split(":");
+			// Sokoban.search reads the search type from the second argument, after the file name
+			String[] search = new String[parts.length + 1];
+			search[0] = "";
+			System.arraycopy(parts, 0, search, 1, parts.length);
+			searches.add(search);
+		}
+		return searches;
+	}
+
+
+	/**
+	 * Has the race go on until a strategy finds a solution known to be the shortest
+	 * (see Strategy.isOptimal), instead of taking the first solution.
+	 * @param shortest true to wait for an optimal solution
+	 */
+	public void setOptimal(boolean shortest) {
+		optimal = shortest;
+	}
+
+
+	/**
+	 * Has every strategy detect duplicate states up to the symmetries of the level.
+	 * @param reduce true to treat rotations and reflections of a state as repeats
+	 */
+	public void setSymmetry(boolean reduce) {
+		symmetry = reduce;
+	}
+
+
+	/**
+	 * Has every strategy make macro pushes at the push level. Push-level solutions are
+	 * then never counted as optimal.
+	 * @param macro true to make macro pushes
+	 */
+	public void setMacroMoves(boolean macro) {
+		macros = macro;
+	}
+
+
+	/**
+	 * Sets the file the level was read from, for the pattern databases.
+	 * @param filename the level file, or null
+	 */
+	public void setLevelFile(String filename) {
+		levelFile = filename;
+	}
+
+
+	/**
+	 * Runs the race and waits for its winner. Each strategy gets a solver of its own,
+	 * and every strategy still running when the race is decided is cancelled.
+	 * @param start the puzzle start state
+	 * @param stop a token that cancels the whole race, or null
+	 * @return the solver of the winning strategy, or null if no strategy found a solution
+	 */
+	public Solver run(final PuzzleState start, CancellationToken stop) throws InterruptedException {
+		long began = System.currentTimeMillis();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, strategies.size()), new ThreadFactory() {
+			private int count;
+			public Thread newThread(Runnable task) {
+				// a strategy that will not stop must not keep the program from exiting
+				Thread thread = new Thread(task, "portfolio-" + (++count));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		CompletionService<Strategy> done = new ExecutorCompletionService<Strategy>(pool);
+		for (final Strategy strategy : strategies) {
+			done.submit(new Callable<Strategy>() {
+				public Strategy call() {
+					strategy.run(start);
+					return strategy;
+				}
+			});
+		}
+		winner = null;
+		Strategy shortest = null;
+		int left = strategies.size();
+		while (left > 0 && winner == null && (stop == null || !stop.isCancelled())) {
+			Future<Strategy> next = done.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			if (next == null) {
+				shareMemory();
+				continue;
+			}
+			left--;
+			Strategy finished = strategyOf(next);
+			if (finished == null || !finished.solver.isSolved()) continue;
+			if (!optimal || finished.isOptimal()) {
+				winner = finished;
+			}
+			else if (shortest == null || lengthOf(finished) < lengthOf(shortest)) {
+				shortest = finished;
+			}
+		}
+		for (Strategy strategy : strategies) {
+			strategy.token.cancel();
+		}
+		pool.shutdown();
+		pool.awaitTermination(STOP_MILLIS, TimeUnit.MILLISECONDS);
+		// a strategy may have found a solution while the others were stopping
+		for (Strategy strategy : strategies) {
+			if (winner == null && strategy.finished && strategy.solver.isSolved()
+					&& (shortest == null || lengthOf(strategy) < lengthOf(shortest))) {
+				shortest = strategy;
+			}
+		}
+		if (winner == null) winner = shortest;
+		runtime = System.currentTimeMillis() - began;
+		return winner == null ? null : winner.solver;
+	}
+
+
+	// the strategy a finished task ran; tasks only ever return their own strategy
+	private static Strategy strategyOf(Future<Strategy> task) throws InterruptedException {
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			return null;
+		}
+	}
+
+
+	// the length of a strategy's solution as the race compares them: pushes at the push level, moves otherwise
+	private int lengthOf(Strategy strategy) {
+		String solution = strategy.solver.getSolution();
+		return pushLevel ? countPushes(solution) : solution.length();
+	}
+
+
+	// the pushes in a solution, which are its upper case moves
+	private static int countPushes(String solution) {
+		int pushes = 0;
+		for (int i = 0; i < solution.length(); i++) {
+			if (Character.isUpperCase(solution.charAt(i))) pushes++;
+		}
+		return pushes;
+	}
+
+
+	// drops the strategy holding the most states while all of them together hold more than the budget
+	private void shareMemory() {
+		if (stateBudget <= 0) {
+			return;
+		}
+		long total = 0;
+		Strategy largest = null;
+		for (Strategy strategy : strategies) {
+			if (strategy.finished || strategy.dropped) continue;
+			long held = strategy.solver.getStatesHeld();
+			total += held;
+			if (largest == null || held > largest.solver.getStatesHeld()) largest = strategy;
+		}
+		if (total > stateBudget && largest != null) {
+			largest.dropped = true;
+			largest.token.cancel();
+		}
+	}
+
+
+	/**
+	 * Describes the race: the winner, and for each strategy how it ended, how long it
+	 * ran, the nodes it generated and the length of its solution.
+	 * @return the race report
+	 */
+	public String report() {
+		StringBuilder report = new StringBuilder("Portfolio: " + strategies.size() + " strategies, "
+				+ (optimal ? "the first optimal solution wins" : "the first solution wins")
+				+ (pushLevel ? " (push level)" : "") + "\nWinner: " + (winner == null ? "none" : winner.name));
+		for (Strategy strategy : strategies) {
+			report.append("\n  ").append(strategy.name).append(": ").append(strategy.describe())
+					.append(", ").append(strategy.elapsed / 1000.0).append(" seconds, ")
+					.append(strategy.solver.getNodesGenerated()).append(" nodes");
+			String solution = strategy.finished ? strategy.solver.getSolution() : null;
+			if (solution != null) {
+				report.append(", ").append(solution.length()).append(" moves, ").append(countPushes(solution))
+						.append(" pushes");
+			}
+		}
+		report.append("\nRace runtime: ").append(runtime / 1000.0).append(" seconds");
+		return report.toString();
+	}
+
+
+	// one entry of the portfolio: a search on its own solver, cancelled through its own token
+	private class Strategy {
+
+		private final String[] search;
+		private final String name;
+		private final Solver solver;
+		private final CancellationToken token = new CancellationToken();
+		private volatile boolean finished, dropped;
+		private volatile long elapsed;
+		private String error;
+
+		private Strategy(String[] search) {
+			this.search = search;
+			StringBuilder label = new StringBuilder(search.length > 1 ? search[1] : "?");
+			for (int i = 2; i < search.length; i++) {
+				label.append(' ').append(search[i]);
+			}
+			name = label.toString();
+			solver = new Solver(statistics);
+		}
+
+		// runs the search to the end, or until it is cancelled
+		private void run(PuzzleState start) {
+			long began = System.currentTimeMillis();
+			solver.setPushLevel(pushLevel);
+			solver.setSymmetry(symmetry);
+			solver.setMacroMoves(macros);
+			solver.setLevelFile(levelFile);
+			// the shared budget is watched by the race; no strategy may hold more than all of it
+			solver.setBudget(timeBudget, stateBudget, nodeBudget);
+			solver.setCancellationToken(token);
+			try {
+				if (!Sokoban.search(solver, start, search)) error = "unknown search type";
+			} catch (OutOfMemoryError e) {
+				error = "out of memory";
+			} catch (Exception e) {
+				error = e.toString();
+			}
+			elapsed = System.currentTimeMillis() - began;
+			finished = true;
+		}
+
+		// whether the solution this strategy finds is always the shortest: in moves, or in pushes at the
+		// push level (macro pushes aside), for searches that never overestimate what is left
+		private boolean isOptimal() {
+			String type = search[1].toLowerCase();
+			boolean admissible = search.length > 2 && (search[2].equals("3") || search[2].equals("4"));
+			if (macros && (pushLevel || type.equals("bidir"))) return false;
+			if (type.equals("bfs") || type.equals("ebfs") || type.equals("iddfs")) return true;
+			// bidirectional search always pushes, so its solution has the fewest pushes but not the fewest moves
+			if (type.equals("bidir")) return pushLevel;
+			if (type.equals("astar") || type.equals("idastar") || type.equals("hdastar")) return admissible;
+			// anytime A* is only done once its bound reaches 1
+			if (type.equals("ara")) return admissible && solver.getStopReason() == null;
+			return false;
+		}
+
+		// how the strategy ended, as a few words for the report
+		private String describe() {
+			if (!finished) return "still stopping";
+			if (error != null) return "error (" + error + ")";
+			if (this == winner) return "won";
+			if (dropped) return "dropped over the shared memory budget";
+			if (solver.isSolved()) return "solved, not first" + (optimal && !isOptimal() ? " (not optimal)" : "");
+			if (solver.getStopReason() == null) return "no solution";
+			if (token.isCancelled() && solver.getStopReason().equals("cancelled")) return "cancelled";
+			return "stopped over the " + solver.getStopReason();
+		}
+	}
+
+}
@@ -1,11 +1,24 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Scanner;
 
 /**
- * Represents a state in a Sokoban Puzzle.
+ * Represents a state in a Sokoban Puzzle. The walls and goals live in a Board
+ * shared by all states of a level; a state itself only stores the sorted cell
+ * indices of the boxes and the cell of the player.
+ * <p>
+ * A state can also be a push-level state, in which case its successors are
+ * whole box pushes rather than single steps, the player cell is normalized to
+ * the top-left square of the player's reachable region, and the walking moves
+ * between pushes are only filled back in when the move list is requested.
+ * <p>
+ * With symmetry reduction (see setSymmetric) a state is also equal to its images
+ * under the rotations and reflections that map the level onto itself. The states
+ * themselves are never turned, so their moves are always real ones.
  * @author Andrew Goldin
  */
 public class PuzzleState implements Comparable<PuzzleState> {
@@ -23,54 +36,139 @@ public class PuzzleState implements Comparable<PuzzleState> {
 			BOX_ON_GOAL = '*',
 			FLOOR = ' ';
 
-	private char[][] grid, newGrid;
-	private int pRow, pCol, prNew, pcNew;
-	private String moveList;
-	private char dir;
+	/**
+	 * The most sets of goals generateGoalStates makes goal states for, on a level with
+	 * more goals than boxes.
+	 */
+	public static final int MAX_GOAL_SETS = 256;
+
+	private final Board board;
+	private final short[] boxes;
+	private final int player;
+	private final long hash;
+
+	// the path is kept as a chain of parent states, each knowing only its last move
+	// (u, d, l, r, upper case for a push, or 0 for the root); it is rebuilt on request,
+	// unless a search that keeps the path elsewhere has cut the chain (see detach)
+	private PuzzleState parent;
+	private final char move;
+	private final int numMoves;
 
 	private int searchType, heuristic;
-	
-	private coord[] boxes, newBoxes, goals;
+
+	// push-level states only: where the player actually stands (the player cell
+	// above is the normalized one); for these states the last move is a push
+	private final boolean pushLevel;
+	private final int origin;
+
+	// with symmetry reduction, states that are rotations or reflections of each other
+	// (see Board.getSymmetryCount) are equal; key is the hash they share
+	private final boolean symmetric;
+	private final long key;
+
+	// push-level states reached by a macro push only: every move of the macro, from the
+	// square behind the first push to where the player ends up
+	private String macro;
+
+	// set when a deadlock detector found that this state can no longer be solved
+	private boolean deadlocked;
+
+	// search values, computed once when the state is created: pushes so far (g is
+	// derived from it and the move count), the cost-to-goal estimate h, and the
+	// value of the evaluation function the fringe is ordered by
+	private int numPushes, estimate, priority;
 
 
 	/**
-	 * Creates a state with a given board, the moves leading up to that state,
-	 * and whether or not the state is presently involved in a uniform cost search.
+	 * Creates a start state from a level grid.
 	 * @param state the current board state as a 2D char array
-	 * @param moves the sequence of moves leading up to this state
-	 * @param ucSearch whether the puzzle is involved in a uniform cost search
-	 */
-	public PuzzleState(char[][] state, String moves, int type, int heur) {
-		grid = state;
-		resetNewGrid();
-		moveList = new String(moves);
-		updatePositions();
+	 * @param type the search type
+	 * @param heur the search heuristic
+	 */
+	public PuzzleState(char[][] state, int type, int heur) {
+		board = new Board(state);
+		int numBoxes = 0, p = 0;
+		for (int i = 0; i < state.length; i++) {
+			for (int j = 0; j < state[i].length; j++) {
+				if (state[i][j] == PLAYER_ON_FLOOR || state[i][j] == PLAYER_ON_GOAL) {
+					p = board.cell(i, j);
+				}
+				if (state[i][j] == BOX_ON_FLOOR || state[i][j] == BOX_ON_GOAL) {
+					numBoxes++;
+				}
+			}
+		}
+		// scanning in row-major order leaves the box cells sorted
+		boxes = new short[numBoxes];
+		int n = 0;
+		for (int i = 0; i < state.length; i++) {
+			for (int j = 0; j < state[i].length; j++) {
+				if (state[i][j] == BOX_ON_FLOOR || state[i][j] == BOX_ON_GOAL) {
+					boxes[n++] = (short) board.cell(i, j);
+				}
+			}
+		}
+		player = p;
 		searchType = type;
 		heuristic = heur;
+		hash = computeHash();
+		symmetric = false;
+		key = hash;
+		parent = null;
+		move = 0;
+		numMoves = 0;
+		pushLevel = false;
+		origin = player;
+		numPushes = 0;
+		score();
 	}
 
 
 	/**
-	 * Creates a state with a given board, the moves leading up to that state,
-	 * the coordinates of the player on the grid, and whether or not the state
-	 * is presently involved in a uniform cost search.
-	 * @param state the current board state as a 2D char array
-	 * @param movesthe sequence of moves leading up to this state
-	 * @param playerRow the player's row in the new state
-	 * @param playerCol the player's column in the new state
-	 * @param ucSearch whether the puzzle is involved in a uniform cost search
-	 */
-	public PuzzleState(char[][] state, String moves, int playerRow, int playerCol,
-			coord[] boxes, coord[] goals, int type, int heur) {
-		grid = state;
-		resetNewGrid();
-		moveList = new String(moves);
-		pRow = playerRow;
-		pCol = playerCol;
+	 * Creates a start state on a shared board from its packed representation.
+	 * @param board the static level the state belongs to
+	 * @param boxes the sorted cell indices of the boxes
+	 * @param player the cell index of the player
+	 * @param type the search type
+	 * @param heur the search heuristic
+	 */
+	public PuzzleState(Board board, short[] boxes, int player, int type, int heur) {
+		this.board = board;
+		this.boxes = boxes;
+		this.player = player;
+		searchType = type;
+		heuristic = heur;
+		hash = computeHash();
+		symmetric = false;
+		key = hash;
+		parent = null;
+		move = 0;
+		numMoves = 0;
+		pushLevel = false;
+		origin = player;
+		numPushes = 0;
+		score();
+	}
+
+
+	// private constructor for states reached by a move (or copies of another state)
+	private PuzzleState(Board board, short[] boxes, int player, long hash, int type, int heur,
+			PuzzleState parent, char move, int moves, int pushes, boolean pushLevel, int origin, boolean symmetric) {
+		this.board = board;
 		this.boxes = boxes;
-		this.goals = goals;
+		this.player = player;
+		this.hash = hash;
+		this.symmetric = symmetric;
 		searchType = type;
 		heuristic = heur;
+		this.parent = parent;
+		this.move = move;
+		numMoves = moves;
+		numPushes = pushes;
+		this.pushLevel = pushLevel;
+		this.origin = origin;
+		key = symmetric ? computeSymmetricKey() : hash;
+		score();
 	}
 
 
@@ -80,10 +178,20 @@ public class PuzzleState implements Comparable<PuzzleState> {
 	 * @return a new PuzzleState
 	 */
 	public PuzzleState setSearchType(int type) {
-		return new PuzzleState(grid, moveList, pRow, pCol, boxes, goals, type, heuristic);
+		return new PuzzleState(board, boxes, player, hash, type, heuristic,
+				parent, move, numMoves, numPushes, pushLevel, origin, symmetric);
 	}
-	
-	
+
+
+	/**
+	 * The search type the state's evaluation function is computed for.
+	 * @return the search type
+	 */
+	public int getSearchType() {
+		return searchType;
+	}
+
+
 	/**
 	 * Returns a new PuzzleState with the search heuristic altered.
 	 * Only relevant for greedy best-first and A* searches.
@@ -91,44 +199,344 @@ public class PuzzleState implements Comparable<PuzzleState> {
 	 * @return a new PuzzleState
 	 */
 	public PuzzleState setSearchHeuristic(int heur) {
-		return new PuzzleState(grid, moveList, pRow, pCol, boxes, goals, searchType, heur);
+		return new PuzzleState(board, boxes, player, hash, searchType, heur,
+				parent, move, numMoves, numPushes, pushLevel, origin, symmetric);
+	}
+
+
+	/**
+	 * Returns a new push-level PuzzleState, whose successors are box pushes
+	 * (see generatePushes). The state becomes the root of the push sequence.
+	 * @return a new PuzzleState
+	 */
+	public PuzzleState setPushLevel() {
+		int normal = normalize(boxes, origin);
+		long newHash = hash ^ board.playerKey(player) ^ board.playerKey(normal);
+		return new PuzzleState(board, boxes, normal, newHash, searchType, heuristic,
+				null, (char) 0, 0, 0, true, origin, symmetric);
+	}
+
+
+	/**
+	 * Returns a new PuzzleState that, like every state generated from it, is equal to
+	 * any rotation or reflection of itself that maps the level onto itself: a search
+	 * then treats the images of a state it has seen as repeats. On a level without
+	 * such symmetries this state is returned as it is.
+	 * @return a new PuzzleState
+	 */
+	public PuzzleState setSymmetric() {
+		if (board.getSymmetryCount() == 0) {
+			return this;
+		}
+		return new PuzzleState(board, boxes, player, hash, searchType, heuristic,
+				parent, move, numMoves, numPushes, pushLevel, origin, true);
+	}
+
+
+	/**
+	 * Cuts this state off from its parent, so that the states before it on its path can
+	 * be garbage collected. Meant for searches that keep the path in a StateStore and
+	 * rebuild it from there: the state keeps its move and push counts and its estimate,
+	 * but getMoves no longer knows the moves that led to it.
+	 */
+	public void detach() {
+		parent = null;
+	}
+
+
+	/**
+	 * Determines if this state is equal to its symmetric images (see setSymmetric).
+	 * @return true if symmetry reduction is on
+	 */
+	public boolean isSymmetric() {
+		return symmetric;
+	}
+
+
+	/**
+	 * Determines if a deadlock detector found this state to be unsolvable.
+	 * @return true if the state is known to be deadlocked
+	 */
+	public boolean isDeadlocked() {
+		return deadlocked;
+	}
+
+
+	/**
+	 * Marks this state as unsolvable.
+	 */
+	public void markDeadlocked() {
+		deadlocked = true;
+	}
+
+
+	/**
+	 * Determines if this is a push-level state.
+	 * @return true if successors are whole box pushes
+	 */
+	public boolean isPushLevel() {
+		return pushLevel;
+	}
+
+
+	// private method, computes the zobrist hash from scratch
+	private long computeHash() {
+		return computeHash(boxes, player);
+	}
+
+
+	// private method, the zobrist hash of a set of boxes and a player cell
+	private long computeHash(short[] boxCells, int playerCell) {
+		long h = board.playerKey(playerCell);
+		for (int i = 0; i < boxCells.length; i++) {
+			h ^= board.boxKey(boxCells[i]);
+		}
+		return h;
+	}
+
+
+	// private method, the smallest zobrist hash over this state and its symmetric images;
+	// at the push level only the boxes count, since the normalized player cell of an
+	// image is not the image of this one's
+	private long computeSymmetricKey() {
+		long boxHash = hash ^ board.playerKey(player);
+		long min = pushLevel ? boxHash : hash;
+		for (int s = 0; s < board.getSymmetryCount(); s++) {
+			long h = pushLevel ? 0 : board.playerKey(board.symmetry(s, player));
+			for (int i = 0; i < boxes.length; i++) {
+				h ^= board.boxKey(board.symmetry(s, boxes[i]));
+			}
+			if (h < min) min = h;
+		}
+		return min;
+	}
+
+
+	// private method, the sorted box cells of this state's image under a symmetry
+	private short[] mapBoxes(int symmetry) {
+		short[] mapped = new short[boxes.length];
+		for (int i = 0; i < boxes.length; i++) {
+			mapped[i] = (short) board.symmetry(symmetry, boxes[i]);
+		}
+		Arrays.sort(mapped);
+		return mapped;
+	}
+
+
+	// private method, the symmetry that maps this state onto another: its index, -1 if the
+	// states are the same as they are, or -2 if neither is an image of the other
+	private int symmetryTo(PuzzleState o) {
+		if (player == o.player && Arrays.equals(boxes, o.boxes)) {
+			return -1;
+		}
+		for (int s = 0; s < board.getSymmetryCount(); s++) {
+			if (!Arrays.equals(mapBoxes(s), o.boxes)) continue;
+			// at the push level the image of the player need only share the other's region
+			int at = board.symmetry(s, player);
+			if (pushLevel ? normalize(o.boxes, at) == o.player : at == o.player) {
+				return s;
+			}
+		}
+		return -2;
+	}
+
+
+	// private method, this state's image under a symmetry, with the given parent
+	private PuzzleState image(int symmetry, PuzzleState mappedParent) {
+		short[] mapped = mapBoxes(symmetry);
+		int at = board.symmetry(symmetry, origin);
+		int normal = pushLevel ? normalize(mapped, at) : board.symmetry(symmetry, player);
+		PuzzleState state = new PuzzleState(board, mapped, normal, computeHash(mapped, normal), searchType,
+				heuristic, mappedParent, move == 0 ? 0 : mapMove(symmetry, move), numMoves, numPushes, pushLevel,
+				at, symmetric);
+		state.deadlocked = deadlocked;
+		if (macro != null) {
+			char[] letters = macro.toCharArray();
+			for (int i = 0; i < letters.length; i++) {
+				letters[i] = mapMove(symmetry, letters[i]);
+			}
+			state.macro = new String(letters);
+		}
+		return state;
+	}
+
+
+	// private method, the move letter a move turns into under a symmetry
+	private char mapMove(int symmetry, char letter) {
+		int d = board.symmetryDirection(symmetry, toDirection(letter));
+		char mapped = d == UP ? 'u' : d == DOWN ? 'd' : d == LEFT ? 'l' : 'r';
+		return Character.isUpperCase(letter) ? Character.toUpperCase(mapped) : mapped;
+	}
+
+
+	// private method, this state and the whole path to it mapped through a symmetry
+	private PuzzleState transform(int symmetry) {
+		return image(symmetry, parent == null ? null : parent.transform(symmetry));
 	}
 
 
-	// private method
-	private void resetNewGrid() {
-		newGrid = grid.clone();
-		for (int i = 0; i < grid.length; i++) {
-			newGrid[i] = grid[i].clone();
+	/**
+	 * This state, with the path to it, turned by the symmetry of the level that makes
+	 * it the same as another state, so that the moves of the two can be joined. Only
+	 * needed when the other state was found through symmetric equality (setSymmetric).
+	 * @param target a state equal to this one
+	 * @return this state if it is already the same as the target, otherwise its image
+	 */
+	public PuzzleState mapOnto(PuzzleState target) {
+		int s = symmetryTo(target);
+		return s < 0 ? this : transform(s);
+	}
+
+
+	/**
+	 * The image of this state, among itself and its symmetric images, with the smallest
+	 * box cells (and then player cell), without a path. All the images of a state have
+	 * the same canonical image, so it can stand for them where states are compared by
+	 * their cells. States without symmetry reduction are their own canonical image.
+	 * @return the canonical image
+	 */
+	public PuzzleState getCanonical() {
+		PuzzleState best = this;
+		for (int s = 0; symmetric && s < board.getSymmetryCount(); s++) {
+			PuzzleState image = image(s, null);
+			int c = compareCells(image.boxes, best.boxes);
+			if (c < 0 || (c == 0 && image.player < best.player)) best = image;
 		}
+		return best;
 	}
 
 
-	// private method
-	private void resetNewBoxes() {
-		newBoxes = boxes.clone();
-		for (int i = 0; i < newBoxes.length; i++) {
-			newBoxes[i] = new coord(boxes[i]);
+	// private method, orders two sorted box arrays by their first difference
+	private static int compareCells(short[] a, short[] b) {
+		for (int i = 0; i < a.length; i++) {
+			if (a[i] != b[i]) return a[i] < b[i] ? -1 : 1;
 		}
+		return 0;
+	}
+
+
+	/**
+	 * The static board this state belongs to.
+	 * @return the board
+	 */
+	public Board getBoard() {
+		return board;
+	}
+
+
+	/**
+	 * The cell index of the player. For push-level states this is the
+	 * top-left square the player can reach, not where the player stands.
+	 * @return the player cell
+	 */
+	public int getPlayer() {
+		return player;
 	}
 
 
 	/**
-	 * The number of moves leading up to the current state
+	 * The cell index where the player actually stands.
+	 * @return the player cell
+	 */
+	public int getPlayerPosition() {
+		return origin;
+	}
+
+
+	/**
+	 * The sorted cell indices of the boxes. The array is shared, do not modify it.
+	 * @return the box cells
+	 */
+	public short[] getBoxes() {
+		return boxes;
+	}
+
+
+	/**
+	 * The number of moves leading up to the current state. For push-level
+	 * states this is the number of pushes, which is what those searches count.
 	 * @return the number of moves
 	 */
 	public int getNumMoves() {
-		return moveList.length();
+		return numMoves;
 	}
 
 
 	/**
 	 * The list of moves as a string containing a sequence of the letters (u, d, l, r).
 	 * If a letter is upper case, a box push occurred at that step.
+	 * The list is rebuilt by following the parent states back to the start.
 	 * @return the list of moves
 	 */
 	public String getMoves() {
-		return moveList;
+		if (!pushLevel) {
+			char[] moves = new char[numMoves];
+			for (PuzzleState s = this; s.parent != null; s = s.parent) {
+				moves[s.numMoves - 1] = s.move;
+			}
+			return new String(moves);
+		}
+		// replay the pushes from the root, walking the player to each one
+		LinkedList<PuzzleState> chain = new LinkedList<PuzzleState>();
+		for (PuzzleState s = this; s != null; s = s.parent) {
+			chain.addFirst(s);
+		}
+		StringBuilder moves = new StringBuilder();
+		PuzzleState prev = null;
+		for (PuzzleState s : chain) {
+			if (prev != null && s.macro != null) {
+				int start = s.origin;
+				for (int i = 0; i < s.macro.length(); i++) {
+					start -= board.offset(toDirection(s.macro.charAt(i)));
+				}
+				moves.append(prev.walk(prev.origin, start)).append(s.macro);
+			}
+			else if (prev != null) {
+				int behind = s.origin - board.offset(toDirection(s.move));
+				moves.append(prev.walk(prev.origin, behind)).append(s.move);
+			}
+			prev = s;
+		}
+		return moves.toString();
+	}
+
+
+	/**
+	 * The state this one was generated from, or null for a start state.
+	 * @return the parent state
+	 */
+	public PuzzleState getParent() {
+		return parent;
+	}
+
+
+	/**
+	 * The move that led to this state from its parent (u, d, l, r, upper case
+	 * for a push), or 0 for a start state.
+	 * @return the last move
+	 */
+	public char getLastMove() {
+		return move;
+	}
+
+
+	/**
+	 * The moves to this push-level state, followed by the moves that undo a chain of
+	 * pulls from a reverse search (see generatePulls). The reverse state must have the
+	 * same boxes and player region as this one; the pushes then lead on to the start
+	 * of the reverse search, normally a goal state.
+	 * @param reverse the state reached by pulling, or null to stop at this state
+	 * @return the list of moves
+	 */
+	public String getMoves(PuzzleState reverse) {
+		StringBuilder moves = new StringBuilder(getMoves());
+		int at = origin;
+		// each pulled state holds the push that undoes its pull
+		for (PuzzleState s = reverse; s != null && s.parent != null; s = s.parent) {
+			moves.append(s.walk(at, s.origin)).append(s.move);
+			at = s.origin + board.offset(toDirection(s.move));
+		}
+		return moves.toString();
 	}
 
 
@@ -137,12 +545,28 @@ public class PuzzleState implements Comparable<PuzzleState> {
 	 * @return the formatted move sequence.
 	 */
 	public String getSequence() {
-		String seq = "";
-		for (int i = 0; i < moveList.length(); i++) {
-			if (i == 0) seq += moveList.charAt(i);
-			else seq += ", " + moveList.charAt(i);
+		return formatSequence(getMoves());
+	}
+
+
+	/**
+	 * Returns the move sequence of getMoves(reverse) as a comma-separated list.
+	 * @param reverse the state reached by pulling, or null to stop at this state
+	 * @return the formatted move sequence.
+	 */
+	public String getSequence(PuzzleState reverse) {
+		return formatSequence(getMoves(reverse));
+	}
+
+
+	// private method, separates move letters with commas
+	private static String formatSequence(String moves) {
+		StringBuilder seq = new StringBuilder(moves.length() * 3);
+		for (int i = 0; i < moves.length(); i++) {
+			if (i > 0) seq.append(", ");
+			seq.append(moves.charAt(i));
 		}
-		return seq;
+		return seq.toString();
 	}
 
 
@@ -151,60 +575,32 @@ public class PuzzleState implements Comparable<PuzzleState> {
 	 * @return the number of pushes
 	 */
 	public int getNumPushes() {
-		int amount = 0;
-		for (int i = 0; i < moveList.length(); i++) {
-			if (Character.isUpperCase(moveList.charAt(i))) {
-				amount++;
-			}
-		}
-		return amount;
+		return numPushes;
 	}
 
 
-	// private method
-	private int getBoxIndex(int row, int col) {
-		for (int i = 0; i < boxes.length; i++) {
-			if (boxes[i].row == row && boxes[i].col == col) {
-				return i;
-			}
-		}
-		return -1;
-	}
-
-	// private method, updates the positions of boxes, goals, and player
-	private void updatePositions() {
-		LinkedList<coord> boxLocs = new LinkedList<coord>();
-		LinkedList<coord> goalLocs = new LinkedList<coord>();
-		for (int i = 0; i < grid.length; i++) {
-			for (int j = 0; j < grid[i].length; j++) {
-				if (grid[i][j] == PLAYER_ON_FLOOR || grid[i][j] == PLAYER_ON_GOAL) {
-					pRow = i;
-					pCol = j;
-				}
-				if (grid[i][j] == BOX_ON_FLOOR || grid[i][j] == BOX_ON_GOAL) {
-					boxLocs.add(new coord(i, j));
-				}
-				if (grid[i][j] == PLAYER_ON_GOAL || grid[i][j] == EMPTY_GOAL || grid[i][j] == BOX_ON_GOAL) {
-					goalLocs.add(new coord(i, j));
-				}
-			}
-		}
-		boxes = boxLocs.toArray(new coord[boxLocs.size()]);
-		goals = goalLocs.toArray(new coord[goalLocs.size()]);
+	/**
+	 * Determines if there is a box on a cell.
+	 * @param cell the cell index
+	 * @return true if a box occupies the cell
+	 */
+	public boolean hasBox(int cell) {
+		return Arrays.binarySearch(boxes, (short) cell) >= 0;
 	}
 
 
 	/**
-	 * Determines if the puzzle is in a goal state. That is to say, there are no
-	 * empty goals or boxes on the floor.
+	 * Determines if the puzzle is in a goal state. That is to say, every box
+	 * is standing on a goal. A level may have more goals than boxes, and the goals
+	 * left over may stay empty; a level with more boxes than goals has no goal state.
+	 * When the counts are equal this is the same as asking for no empty goals and
+	 * no boxes on the floor.
 	 * @return true if goal state is reached, false otherwise.
 	 */
 	public boolean isGoalState() {
-		for (int i = 0; i < grid.length; i++) {
-			for (int j = 0; j < grid[i].length; j++) {
-				if (grid[i][j] == EMPTY_GOAL || grid[i][j] == BOX_ON_FLOOR) {
-					return false;
-				}
+		for (int i = 0; i < boxes.length; i++) {
+			if (!board.isGoal(boxes[i])) {
+				return false;
 			}
 		}
 		return true;
@@ -213,66 +609,99 @@ public class PuzzleState implements Comparable<PuzzleState> {
 
 	// first search heuristic: computes the total manhattan distance between box/goal pairs
 	private int computeMinManhattanDistance() {
+		int[] goals = board.getGoals();
 		boolean[] goalsTaken = new boolean[goals.length];
-		int[][] pairings = new int[boxes.length][goals.length];
-		int currentMin = 0, manhattan = 0, minIndex = 0;
+		int sum = 0, currentMin = 0, manhattan = 0, minIndex = 0;
 		for (int i = 0; i < boxes.length; i++) {
 			currentMin = Integer.MAX_VALUE;
-			for (int j = i; j < goals.length; j++) {
+			for (int j = 0; j < goals.length; j++) {
 				if (!goalsTaken[j]) {
-					manhattan = Math.abs(boxes[i].row - goals[j].row) + Math.abs(boxes[i].col - goals[j].col);
-					if (manhattan < currentMin && !goalsTaken[j]) {
+					manhattan = Math.abs(board.row(boxes[i]) - board.row(goals[j]))
+							+ Math.abs(board.col(boxes[i]) - board.col(goals[j]));
+					if (manhattan < currentMin) {
 						currentMin = manhattan;
 						minIndex = j;
 					}
 				}
 			}
 			goalsTaken[minIndex] = true;
-			pairings[i][minIndex] = currentMin;
-		}
-		int sum = 0;
-		for (int i = 0; i < pairings.length; i++) {
-			for (int j = 0; j < pairings[i].length; j++) {
-				sum += pairings[i][j];
-			}
+			sum += currentMin;
 		}
 		return sum;
 	}
-	
-	
+
+
 	// second search heuristic: computes the total straight line distance between box/goal pairs
 	private int computeMinStraightLineDistance() {
+		int[] goals = board.getGoals();
 		boolean[] goalsTaken = new boolean[goals.length];
-		double[][] pairings = new double[boxes.length][goals.length];
 		int minIndex = 0;
-		double straightLine = 0.0, currentMin = 0.0;
+		double sum = 0.0, straightLine = 0.0, currentMin = 0.0;
 		for (int i = 0; i < boxes.length; i++) {
 			currentMin = Double.MAX_VALUE;
-			for (int j = i; j < goals.length; j++) {
+			for (int j = 0; j < goals.length; j++) {
 				if (!goalsTaken[j]) {
-					straightLine = Math.sqrt((boxes[i].row - goals[j].row) * (boxes[i].row - goals[j].row)
-							+ (boxes[i].col - goals[j].col) * (boxes[i].col - goals[j].col));
-					if (straightLine < currentMin && !goalsTaken[j]) {
+					int dRow = board.row(boxes[i]) - board.row(goals[j]);
+					int dCol = board.col(boxes[i]) - board.col(goals[j]);
+					straightLine = Math.sqrt(dRow * dRow + dCol * dCol);
+					if (straightLine < currentMin) {
 						currentMin = straightLine;
 						minIndex = j;
 					}
 				}
 			}
 			goalsTaken[minIndex] = true;
-			pairings[i][minIndex] = currentMin;
-		}
-		double sum = 0;
-		for (int i = 0; i < pairings.length; i++) {
-			for (int j = 0; j < pairings[i].length; j++) {
-				sum += pairings[i][j];
-			}
+			sum += currentMin;
 		}
 		return (int) Math.round(sum);
 	}
 
 
+	/**
+	 * The estimate set by a MatchingHeuristic, used by the evaluation function
+	 * when the search heuristic is Solver.MATCHING, or raised by a PatternDatabase
+	 * when it is Solver.PATTERN_DATABASE.
+	 * @return the cost-to-goal estimate
+	 */
+	public int getEstimate() {
+		return estimate;
+	}
+
+
+	/**
+	 * Stores the estimate computed for this state by a MatchingHeuristic or PatternDatabase.
+	 * @param value the cost-to-goal estimate
+	 */
+	public void setEstimate(int value) {
+		estimate = value;
+		priority = evaluate(searchType);
+	}
+
+
+	/**
+	 * The value of the evaluation function for the search type, as computed when the
+	 * state was created (or when its estimate was last set). The fringe is ordered by it.
+	 * @return the evaluation function result
+	 */
+	public int getPriority() {
+		return priority;
+	}
+
+
+	// private method, computes h (when the search uses one) and the evaluation function once
+	private void score() {
+		if ((searchType == Solver.GBFS || searchType == Solver.A_STAR)
+				&& (heuristic == Solver.MANHATTAN || heuristic == Solver.STRAIGHT_LINE)) {
+			estimate = heuristic == Solver.MANHATTAN ? computeMinManhattanDistance() : computeMinStraightLineDistance();
+		}
+		priority = evaluate(searchType);
+	}
+
+
 	/**
 	 * Returns the result of the evaluation function, which is dependent upon the search type.
+	 * The move and push counts and the heuristic estimate are all stored in the
+	 * state, so this does no searching of its own.
 	 * @param searchType the search type being used
 	 * @return the function result
 	 */
@@ -287,20 +716,10 @@ public class PuzzleState implements Comparable<PuzzleState> {
 			return getNumMoves() + getNumPushes();
 		}
 		if (searchType == Solver.GBFS) {
-			if (heuristic == Solver.MANHATTAN) {
-				return computeMinManhattanDistance();
-			}
-			else {
-				return computeMinStraightLineDistance();
-			}
+			return estimate;
 		}
 		if (searchType == Solver.A_STAR) {
-			if (heuristic == Solver.MANHATTAN) {
-				return getNumMoves() + computeMinManhattanDistance();
-			}
-			else {
-				return getNumMoves() + computeMinStraightLineDistance();
-			}
+			return getNumMoves() + estimate;
 		}
 		return -1;
 	}
@@ -312,127 +731,491 @@ public class PuzzleState implements Comparable<PuzzleState> {
 	 * @return an updated PuzzleState with positions recalculated and move list updated
 	 */
 	public PuzzleState generateMove(int direction) {
-		resetNewGrid();
-		resetNewBoxes();
-		dir = ' ';
-		prNew = pRow;
-		pcNew = pCol;
-		if (direction == UP) {
-			dir = 'u';
-			prNew--;
-			// if there's a box, move the box
-			if (grid[pRow - 1][pCol] == BOX_ON_FLOOR || grid[pRow - 1][pCol] == BOX_ON_GOAL) {
-				// capital means a push
-				dir = 'U';
-				newGrid[pRow - 2][pCol] = grid[pRow - 2][pCol] == EMPTY_GOAL ? BOX_ON_GOAL : BOX_ON_FLOOR;
-				newBoxes[getBoxIndex(pRow - 1, pCol)].row--;
-			}
-			// move the player
-			newGrid[pRow - 1][pCol] = grid[pRow - 1][pCol] == EMPTY_GOAL || grid[pRow - 1][pCol] == BOX_ON_GOAL ?
-					PLAYER_ON_GOAL : PLAYER_ON_FLOOR;
-		}
-		else if (direction == DOWN) {
-			dir = 'd';
-			prNew++;
-			// if there's a box, move the box
-			if (grid[pRow + 1][pCol] == BOX_ON_FLOOR || grid[pRow + 1][pCol] == BOX_ON_GOAL) {
-				// capital means a push
-				dir = 'D';
-				newGrid[pRow + 2][pCol] = grid[pRow + 2][pCol] == EMPTY_GOAL ? BOX_ON_GOAL : BOX_ON_FLOOR;
-				newBoxes[getBoxIndex(pRow + 1, pCol)].row++;
+		return generateMove(direction, null);
+	}
+
+
+	/**
+	 * Generates a new PuzzleState based on a move direction. If the move is a push,
+	 * the new state is checked for deadlocks around the pushed box.
+	 * @param direction the direction to move the player
+	 * @param detector the deadlock detector to use, or null to skip the check
+	 * @return an updated PuzzleState with positions recalculated and move list updated
+	 */
+	public PuzzleState generateMove(int direction, DeadlockDetector detector) {
+		int next = player + board.offset(direction);
+		long newHash = hash ^ board.playerKey(player) ^ board.playerKey(next);
+		char dir = direction == UP ? 'u' : direction == DOWN ? 'd' : direction == LEFT ? 'l' : 'r';
+		short[] newBoxes = boxes;
+		int index = Arrays.binarySearch(boxes, (short) next);
+		// if there's a box, move the box
+		if (index >= 0) {
+			// capital means a push
+			dir = Character.toUpperCase(dir);
+			int target = next + board.offset(direction);
+			newBoxes = moveBox(boxes, index, target);
+			newHash ^= board.boxKey(next) ^ board.boxKey(target);
+			PuzzleState child = new PuzzleState(board, newBoxes, next, newHash, searchType, heuristic,
+					this, dir, numMoves + 1, numPushes + 1, false, next, symmetric);
+			if (detector != null) {
+				child.deadlocked = detector.isDeadlocked(child, target);
 			}
-			// move the player
-			newGrid[pRow + 1][pCol] = grid[pRow + 1][pCol] == EMPTY_GOAL || grid[pRow + 1][pCol] == BOX_ON_GOAL ?
-					PLAYER_ON_GOAL : PLAYER_ON_FLOOR;
-		}
-		else if (direction == LEFT) {
-			dir = 'l';
-			pcNew--;
-			// if there's a box, move the box
-			if (grid[pRow][pCol - 1] == BOX_ON_FLOOR || grid[pRow][pCol - 1] == BOX_ON_GOAL) {
-				// capital means a push
-				dir = 'L';
-				newGrid[pRow][pCol - 2] = grid[pRow][pCol - 2] == EMPTY_GOAL ? BOX_ON_GOAL : BOX_ON_FLOOR;
-				newBoxes[getBoxIndex(pRow, pCol - 1)].col--;
+			return child;
+		}
+		return new PuzzleState(board, newBoxes, next, newHash, searchType, heuristic,
+				this, dir, numMoves + 1, numPushes, false, next, symmetric);
+	}
+
+
+	// private method, copies the box array with one box moved, keeping it sorted
+	private static short[] moveBox(short[] boxes, int index, int target) {
+		short[] moved = boxes.clone();
+		int i = index;
+		// slide neighbours over until the moved box is back in order
+		while (i > 0 && moved[i - 1] > target) {
+			moved[i] = moved[i - 1];
+			i--;
+		}
+		while (i < moved.length - 1 && moved[i + 1] < target) {
+			moved[i] = moved[i + 1];
+			i++;
+		}
+		moved[i] = (short) target;
+		return moved;
+	}
+
+
+	/**
+	 * Generates every state reachable by walking the player (without moving a box)
+	 * and then pushing a single box one square. The children are push-level states.
+	 * Pushes onto dead squares are not generated.
+	 * @param children the list to add the states after each legal push to
+	 * @param detector the deadlock detector to check each child with, or null to skip the check
+	 * @return the number of pushes refused because they lead onto a dead square
+	 */
+	public int generatePushes(List<PuzzleState> children, DeadlockDetector detector) {
+		return generatePushes(children, detector, false);
+	}
+
+
+	/**
+	 * Generates the push-level successors as generatePushes(children, detector) does, with
+	 * macro pushes if asked for: a box pushed into a tunnel (see Board.isTunnel) is pushed
+	 * on until it comes out, and a box pushed onto the entrance of the goal room is carried
+	 * to the next slot of the room's fill order (see Board.getGoalRoomSlots), when the
+	 * slots before it are filled. A macro push is one child, counting every push it makes,
+	 * and its moves are filled in with the others when the move list is requested.
+	 * @param children the list to add the states after each legal push to
+	 * @param detector the deadlock detector to check each child with, or null to skip the check
+	 * @param macros true to generate macro pushes
+	 * @return the number of pushes refused because they lead onto a dead square
+	 */
+	public int generatePushes(List<PuzzleState> children, DeadlockDetector detector, boolean macros) {
+		int pruned = 0;
+		boolean[] reached = new boolean[board.getSize()];
+		int[] queue = new int[board.getSize()];
+		int head = 0, tail = 0;
+		queue[tail++] = origin;
+		reached[origin] = true;
+		while (head < tail) {
+			int cell = queue[head++];
+			for (int d = UP; d <= RIGHT; d++) {
+				int offset = board.offset(d);
+				int next = cell + offset;
+				if (board.isWall(next)) {
+					continue;
+				}
+				int index = Arrays.binarySearch(boxes, (short) next);
+				if (index >= 0) {
+					int target = next + offset;
+					if (!board.isWall(target) && !hasBox(target)) {
+						if (board.isDeadSquare(target)) pruned++;
+						else children.add(generatePush(index, d, detector, macros));
+					}
+				}
+				else if (!reached[next]) {
+					reached[next] = true;
+					queue[tail++] = next;
+				}
 			}
-			// move the player
-			newGrid[pRow][pCol - 1] = grid[pRow][pCol - 1] == EMPTY_GOAL || grid[pRow][pCol - 1] == BOX_ON_GOAL ?
-					PLAYER_ON_GOAL : PLAYER_ON_FLOOR;			
-		}
-		else if (direction == RIGHT) {
-			dir = 'r';
-			pcNew++;
-			// if there's a box, move the box
-			if (grid[pRow][pCol + 1] == BOX_ON_FLOOR || grid[pRow][pCol + 1] == BOX_ON_GOAL) {
-				// capital means a push
-				dir = 'R';
-				newGrid[pRow][pCol + 2] = grid[pRow][pCol + 2] == EMPTY_GOAL ? BOX_ON_GOAL : BOX_ON_FLOOR;
-				newBoxes[getBoxIndex(pRow, pCol + 1)].col++;
+		}
+		return pruned;
+	}
+
+
+	/**
+	 * Generates the push-level states at the end of the puzzle: every box on a goal,
+	 * with the player in any region next to a box (where the last push could have
+	 * left it). These are the start states of a reverse search. When the level has
+	 * more goals than boxes, there are goal states for each set of goals the boxes
+	 * could fill, unless there are more than MAX_GOAL_SETS such sets; there are none
+	 * then, nor when the level has more boxes than goals.
+	 * @return the goal states, one per set of filled goals and player region
+	 */
+	public List<PuzzleState> generateGoalStates() {
+		List<PuzzleState> goalStates = new ArrayList<PuzzleState>();
+		int[] goals = board.getGoals();
+		if (goals.length < boxes.length || countGoalSets(goals.length, boxes.length) > MAX_GOAL_SETS) {
+			return goalStates;
+		}
+		int[] queue = new int[board.getSize()];
+		// only the squares inside the level, where the player can be with the boxes moved
+		// out of the way; the floor outside the outer walls is never a player region
+		boolean[] inside = new boolean[board.getSize()];
+		int head = 0, tail = 0;
+		queue[tail++] = origin;
+		inside[origin] = true;
+		while (head < tail) {
+			int cell = queue[head++];
+			for (int d = UP; d <= RIGHT; d++) {
+				int next = cell + board.offset(d);
+				if (!inside[next] && !board.isWall(next)) {
+					inside[next] = true;
+					queue[tail++] = next;
+				}
 			}
-			// move the player
-			newGrid[pRow][pCol + 1] = grid[pRow][pCol + 1] == EMPTY_GOAL || grid[pRow][pCol + 1] == BOX_ON_GOAL ?
-					PLAYER_ON_GOAL : PLAYER_ON_FLOOR;
 		}
+		int[] sorted = goals.clone();
+		Arrays.sort(sorted);
+		addGoalStates(sorted, 0, new short[boxes.length], 0, inside, queue, goalStates);
+		return goalStates;
+	}
 
-		// update where the player left from
-		newGrid[pRow][pCol] = grid[pRow][pCol] == PLAYER_ON_GOAL ? EMPTY_GOAL : FLOOR;
 
-		return new PuzzleState(newGrid, moveList + dir, prNew, pcNew, newBoxes, goals, searchType, heuristic);
+	// private method, the number of ways to choose the goals the boxes stand on, capped past MAX_GOAL_SETS
+	private static long countGoalSets(int goals, int boxes) {
+		long sets = 1;
+		for (int i = 0; i < boxes && sets <= MAX_GOAL_SETS; i++) {
+			sets = sets * (goals - i) / (i + 1);
+		}
+		return sets;
+	}
+
+
+	// private method, picks the goals for the boxes in increasing order, from a given goal on, and adds
+	// the goal states of every complete pick
+	private void addGoalStates(int[] goals, int from, short[] goalBoxes, int count, boolean[] inside, int[] queue,
+			List<PuzzleState> goalStates) {
+		if (count < goalBoxes.length) {
+			for (int i = from; i <= goals.length - (goalBoxes.length - count); i++) {
+				goalBoxes[count] = (short) goals[i];
+				addGoalStates(goals, i + 1, goalBoxes, count + 1, inside, queue, goalStates);
+			}
+			return;
+		}
+		// the goal states share one box array, as states never change theirs
+		short[] filled = goalBoxes.clone();
+		boolean[] reached = new boolean[board.getSize()];
+		for (int i = 0; i < reached.length; i++) {
+			reached[i] = !inside[i];
+		}
+		for (int start = 0; start < board.getSize(); start++) {
+			if (reached[start] || Arrays.binarySearch(goalBoxes, (short) start) >= 0) {
+				continue;
+			}
+			// flood the region, noting whether it touches a box
+			int head = 0, tail = 0;
+			boolean touchesBox = false;
+			queue[tail++] = start;
+			reached[start] = true;
+			while (head < tail) {
+				int cell = queue[head++];
+				for (int d = UP; d <= RIGHT; d++) {
+					int next = cell + board.offset(d);
+					if (board.isWall(next) || reached[next]) continue;
+					if (Arrays.binarySearch(goalBoxes, (short) next) >= 0) {
+						touchesBox = true;
+					}
+					else {
+						reached[next] = true;
+						queue[tail++] = next;
+					}
+				}
+			}
+			if (touchesBox) {
+				PuzzleState goal = new PuzzleState(board, filled, start, searchType, heuristic).setPushLevel();
+				goalStates.add(symmetric ? goal.setSymmetric() : goal);
+			}
+		}
 	}
 
 
 	/**
-	 * Determines if the player can move in a given direction in the current state.
-	 * @param direction the attempted direction of movement
-	 * @return true if a move can be performed, false otherwise
+	 * Generates every push-level state reachable backward from this one: the player
+	 * walks to a box, then steps away from it pulling the box one square along.
+	 * Each child remembers, as its last move, the push that undoes the pull, and
+	 * stands where that push starts, so a chain of pulls can be replayed forward by
+	 * getMoves(reverse). Pulls are not checked for deadlocks.
+	 * @param children the list to add the states after each legal pull to
 	 */
-	public boolean canMove(int direction) {
-		if (direction == UP) {
-			if (grid[pRow - 1][pCol] == WALL) {
-				return false;
-			}
-			if ((grid[pRow - 1][pCol] == BOX_ON_FLOOR || grid[pRow - 1][pCol] == BOX_ON_GOAL)
-					&& (grid[pRow - 2][pCol] == BOX_ON_FLOOR || grid[pRow - 2][pCol] == BOX_ON_GOAL || grid[pRow - 2][pCol] == WALL)) {
-				return false;
+	public void generatePulls(List<PuzzleState> children) {
+		boolean[] reached = new boolean[board.getSize()];
+		int[] queue = new int[board.getSize()];
+		int head = 0, tail = 0;
+		queue[tail++] = origin;
+		reached[origin] = true;
+		while (head < tail) {
+			int cell = queue[head++];
+			for (int d = UP; d <= RIGHT; d++) {
+				int offset = board.offset(d);
+				int next = cell + offset;
+				if (board.isWall(next)) {
+					continue;
+				}
+				if (hasBox(next)) {
+					// the player steps from cell away from the box, pulling it onto cell
+					int away = cell - offset;
+					if (!board.isWall(away) && !hasBox(away)) {
+						children.add(generatePull(Arrays.binarySearch(boxes, (short) next), d));
+					}
+				}
+				else if (!reached[next]) {
+					reached[next] = true;
+					queue[tail++] = next;
+				}
 			}
 		}
-		else if (direction == DOWN) {
-			if (grid[pRow + 1][pCol] == WALL) {
-				return false;
+	}
+
+
+	// private method, pulls the box at a given index one square against a direction
+	private PuzzleState generatePull(int index, int direction) {
+		int from = boxes[index];
+		int target = from - board.offset(direction);
+		int away = target - board.offset(direction);
+		short[] newBoxes = moveBox(boxes, index, target);
+		int normal = normalize(newBoxes, away);
+		long newHash = hash ^ board.boxKey(from) ^ board.boxKey(target)
+				^ board.playerKey(player) ^ board.playerKey(normal);
+		// the push from away in the original direction undoes this pull
+		char push = direction == UP ? 'U' : direction == DOWN ? 'D' : direction == LEFT ? 'L' : 'R';
+		return new PuzzleState(board, newBoxes, normal, newHash, searchType, heuristic,
+				this, push, numMoves + 1, numPushes + 1, true, away, symmetric);
+	}
+
+
+	// private method, pushes the box at a given index one square in a direction, or as a macro
+	// push through a tunnel and into the goal room
+	private PuzzleState generatePush(int index, int direction, DeadlockDetector detector, boolean macros) {
+		int from = boxes[index];
+		int offset = board.offset(direction);
+		int target = from + offset;
+		char push = direction == UP ? 'U' : direction == DOWN ? 'D' : direction == LEFT ? 'L' : 'R';
+		int pushes = 1, at = from;
+		String moves = null;
+		if (macros) {
+			int entrance = board.getGoalRoomEntrance();
+			while (target != entrance && board.isTunnel(target, direction) && !board.isWall(target + offset)
+					&& !hasBox(target + offset) && !board.isDeadSquare(target + offset)) {
+				target += offset;
+				pushes++;
 			}
-			if ((grid[pRow + 1][pCol] == BOX_ON_FLOOR || grid[pRow + 1][pCol] == BOX_ON_GOAL)
-					&& (grid[pRow + 2][pCol] == BOX_ON_FLOOR || grid[pRow + 2][pCol] == BOX_ON_GOAL || grid[pRow + 2][pCol] == WALL)) {
-				return false;
+			at = target - offset;
+			StringBuilder letters = new StringBuilder();
+			for (int i = 0; i < pushes; i++) {
+				letters.append(push);
 			}
+			String carry = target == entrance ? goalRoomMoves(index, direction) : null;
+			if (carry != null) {
+				// follow the box into the room
+				for (int i = 0; i < carry.length(); i++) {
+					int step = board.offset(toDirection(carry.charAt(i)));
+					if (at + step == target) target += step;
+					if (Character.isUpperCase(carry.charAt(i))) pushes++;
+					at += step;
+				}
+				letters.append(carry);
+			}
+			if (letters.length() > 1) moves = letters.toString();
 		}
-		else if (direction == LEFT) {
-			if (grid[pRow][pCol - 1] == WALL) {
-				return false;
+		short[] newBoxes = moveBox(boxes, index, target);
+		int normal = normalize(newBoxes, at);
+		long newHash = hash ^ board.boxKey(from) ^ board.boxKey(target)
+				^ board.playerKey(player) ^ board.playerKey(normal);
+		PuzzleState child = new PuzzleState(board, newBoxes, normal, newHash, searchType, heuristic,
+				this, push, numMoves + pushes, numPushes + pushes, true, at, symmetric);
+		child.macro = moves;
+		if (detector != null) {
+			child.deadlocked = detector.isDeadlocked(child, target);
+		}
+		return child;
+	}
+
+
+	// private method, the moves that carry a box just pushed onto the entrance of the goal room
+	// to the next free slot, or null if the boxes in the room are not the slots before it
+	private String goalRoomMoves(int moving, int direction) {
+		int[] slots = board.getGoalRoomSlots();
+		int filled = 0;
+		for (int i = 0; i < boxes.length; i++) {
+			if (i != moving && board.isInGoalRoom(boxes[i])) filled++;
+		}
+		if (filled >= slots.length) {
+			return null;
+		}
+		for (int i = 0; i < filled; i++) {
+			if (!hasBox(slots[i])) return null;
+		}
+		return board.getGoalRoomMoves(filled, direction);
+	}
+
+
+	// private method, the top-left square reachable by the player from a cell
+	private int normalize(short[] boxCells, int start) {
+		boolean[] reached = new boolean[board.getSize()];
+		int[] queue = new int[board.getSize()];
+		int head = 0, tail = 0, min = start;
+		queue[tail++] = start;
+		reached[start] = true;
+		while (head < tail) {
+			int cell = queue[head++];
+			if (cell < min) min = cell;
+			for (int d = UP; d <= RIGHT; d++) {
+				int next = cell + board.offset(d);
+				if (!reached[next] && !board.isWall(next) && Arrays.binarySearch(boxCells, (short) next) < 0) {
+					reached[next] = true;
+					queue[tail++] = next;
+				}
 			}
-			if ((grid[pRow][pCol - 1] == BOX_ON_FLOOR || grid[pRow][pCol - 1] == BOX_ON_GOAL)
-					&& (grid[pRow][pCol - 2] == BOX_ON_FLOOR || grid[pRow][pCol - 2] == BOX_ON_GOAL || grid[pRow][pCol - 2] == WALL)) {
-				return false;
+		}
+		return min;
+	}
+
+
+	// private method, the shortest walk between two cells that moves no box, as move letters
+	private String walk(int from, int to) {
+		int[] cameFrom = new int[board.getSize()];
+		Arrays.fill(cameFrom, -1);
+		int[] queue = new int[board.getSize()];
+		int head = 0, tail = 0;
+		queue[tail++] = from;
+		cameFrom[from] = from;
+		while (head < tail && cameFrom[to] < 0) {
+			int cell = queue[head++];
+			for (int d = UP; d <= RIGHT; d++) {
+				int next = cell + board.offset(d);
+				if (cameFrom[next] < 0 && !board.isWall(next) && !hasBox(next)) {
+					cameFrom[next] = cell;
+					queue[tail++] = next;
+				}
 			}
 		}
-		else if (direction == RIGHT) {
-			if (grid[pRow][pCol + 1] == WALL) {
-				return false;
+		StringBuilder path = new StringBuilder();
+		for (int cell = to; cell != from; cell = cameFrom[cell]) {
+			int step = cell - cameFrom[cell];
+			path.append(step == -board.getWidth() ? 'u' : step == board.getWidth() ? 'd' : step == -1 ? 'l' : 'r');
+		}
+		return path.reverse().toString();
+	}
+
+
+	// private method, the direction constant for a move letter
+	private static int toDirection(char move) {
+		char m = Character.toLowerCase(move);
+		return m == 'u' ? UP : m == 'd' ? DOWN : m == 'l' ? LEFT : RIGHT;
+	}
+
+
+	/**
+	 * Plays a string of move letters from this state through generateMove, checking
+	 * each one: the move must be legal, and its letter must be upper case exactly when
+	 * it pushes a box. Meant for states searched by single steps.
+	 * @param moves the move letters (u, d, l, r, upper case for a push)
+	 * @return the state reached, with this one at the root of its path, or null if a move does not fit
+	 */
+	public PuzzleState replay(String moves) {
+		PuzzleState current = this;
+		for (int i = 0; i < moves.length(); i++) {
+			char letter = moves.charAt(i);
+			if ("udlrUDLR".indexOf(letter) < 0 || !current.canMove(toDirection(letter))) {
+				return null;
 			}
-			if ((grid[pRow][pCol + 1] == BOX_ON_FLOOR || grid[pRow][pCol + 1] == BOX_ON_GOAL)
-					&& (grid[pRow][pCol + 2] == BOX_ON_FLOOR || grid[pRow][pCol + 2] == BOX_ON_GOAL || grid[pRow][pCol + 2] == WALL)) {
-				return false;
+			current = current.generateMove(toDirection(letter));
+			if (current.move != letter) {
+				return null;
 			}
 		}
+		return current;
+	}
+
+
+	/**
+	 * Determines if the player can move in a given direction in the current state.
+	 * Pushing a box onto a dead square is not allowed, since the puzzle could
+	 * no longer be solved.
+	 * @param direction the attempted direction of movement
+	 * @return true if a move can be performed, false otherwise
+	 */
+	public boolean canMove(int direction) {
+		int offset = board.offset(direction);
+		int next = player + offset;
+		if (board.isWall(next)) {
+			return false;
+		}
+		if (hasBox(next) && (board.isWall(next + offset) || hasBox(next + offset)
+				|| board.isDeadSquare(next + offset))) {
+			return false;
+		}
 		return true;
 	}
 
 
 	/**
-	 * Determines if two Puzzle states are equal by comparing the board contents.
+	 * Determines if a move in a given direction would push a box onto a dead square.
+	 * @param direction the attempted direction of movement
+	 * @return true if the move is a push onto a dead square
+	 */
+	public boolean isDeadPush(int direction) {
+		int offset = board.offset(direction);
+		int next = player + offset;
+		return !board.isWall(next) && hasBox(next) && board.isDeadSquare(next + offset)
+				&& !hasBox(next + offset);
+	}
+
+
+	/**
+	 * Determines if two Puzzle states are equal by comparing the player and box positions.
+	 * The zobrist hashes are compared first, so the box comparison only runs
+	 * when the states are almost certainly equal. With symmetry reduction a state is
+	 * also equal to any of its images under the symmetries of the level.
 	 * @return true if the boards (or grids) of each PuzzleState are equal.
 	 */
 	public boolean equals(Object other) {
-		return Arrays.deepEquals(this.grid, ((PuzzleState) other).grid);
+		PuzzleState o = (PuzzleState) other;
+		if (symmetric) {
+			return key == o.key && symmetryTo(o) != -2;
+		}
+		return hash == o.hash && player == o.player && Arrays.equals(boxes, o.boxes);
+	}
+
+
+	/**
+	 * Returns a hash code based on the zobrist hash of the box and player squares,
+	 * or on the key shared by the symmetric images of the state (see getKey).
+	 * @return the hash code
+	 */
+	public int hashCode() {
+		return (int) (key ^ (key >>> 32));
+	}
+
+
+	/**
+	 * The zobrist hash of the state, covering the box squares and the player square.
+	 * @return the 64-bit hash
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+
+	/**
+	 * The hash that equal states share: the zobrist hash, or with symmetry reduction the
+	 * smallest zobrist hash over the state's symmetric images (leaving out the player
+	 * at the push level).
+	 * @return the 64-bit key
+	 */
+	public long getKey() {
+		return key;
 	}
 
 
@@ -441,15 +1224,19 @@ public class PuzzleState implements Comparable<PuzzleState> {
 	 * @return a String representing the current state
 	 */
 	public String toString() {
-		String puzzle = "";
-		for (int i = 0; i < grid.length; i++) {
-			for (int j = 0; j < grid[i].length; j++) {
-				puzzle += grid[i][j];
+		StringBuilder puzzle = new StringBuilder();
+		for (int i = 0; i < board.getHeight(); i++) {
+			for (int j = 0; j < board.getRowLength(i); j++) {
+				int cell = board.cell(i, j);
+				boolean goal = board.isGoal(cell);
+				if (board.isWall(cell)) puzzle.append(WALL);
+				else if (cell == origin) puzzle.append(goal ? PLAYER_ON_GOAL : PLAYER_ON_FLOOR);
+				else if (hasBox(cell)) puzzle.append(goal ? BOX_ON_GOAL : BOX_ON_FLOOR);
+				else puzzle.append(goal ? EMPTY_GOAL : FLOOR);
 			}
-			puzzle += "\n";
+			puzzle.append("\n");
 		}
-		//puzzle += "Player: (" + pRow + ", " + pCol + ")";
-		return puzzle;
+		return puzzle.toString();
 	}
 
 	/**
@@ -471,30 +1258,21 @@ public class PuzzleState implements Comparable<PuzzleState> {
 			pgrid[i] = read.nextLine().toCharArray();
 		}
 		read.close();
-		return new PuzzleState(pgrid, "", type, heur);
+		return new PuzzleState(pgrid, type, heur);
 	}
 
 
 	/**
-	 * Compares two PuzzleStates by cost from root.
+	 * Compares two PuzzleStates by the evaluation function computed when they were
+	 * created. Ties go to the state with the lower estimate (the one that looks
+	 * closer to the goal), and then to the lower hash, so the order is deterministic.
 	 * @return 1 if this.cost > other.cost, -1 if this.cost < other.cost, 0 otherwise
 	 */
 	public int compareTo(PuzzleState other) {
-		if (this.evaluate(searchType) > other.evaluate(other.searchType)) return 1;
-		else if (this.evaluate(searchType) < other.evaluate(other.searchType)) return -1;
-		else return 0;
-	}
-
-
-	// represents a grid coordinate
-	private class coord {
-		public int row, col;
-		public coord(int r, int c) {
-			row = r; col = c;
-		}
-		public coord(coord o) {
-			row = o.row; col = o.col;
-		}
+		if (priority != other.priority) return priority < other.priority ? -1 : 1;
+		if (estimate != other.estimate) return estimate < other.estimate ? -1 : 1;
+		if (hash != other.hash) return hash < other.hash ? -1 : 1;
+		return 0;
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,164 @@
+/**
+ * The outcome of one search: a solution, a search that ran out of states without
+ * one, or a search stopped early by a budget or a cancellation. It carries the
+ * statistics of the search and, for a search that did not finish, the state with
+ * the lowest estimate it reached, so that a stopped search still shows how far
+ * it got.
+ * @author Andrew Goldin
+ */
+public class SearchResult {
+
+	public static final int SOLVED = 1,
+			UNSOLVED = 2,
+			CANCELLED = 3;
+
+	private final int status;
+	private final String stopReason, solution;
+	private final PuzzleState best;
+	private final int bestEstimate;
+	private final long nodesGenerated, nodesOnFringe, nodesOnExplored, peakFringe, runtime;
+
+
+	/**
+	 * Creates a result.
+	 * @param status SOLVED, UNSOLVED or CANCELLED
+	 * @param stopReason why the search stopped early, or null
+	 * @param solution the solution moves, or null
+	 * @param best the expanded state with the lowest estimate, or null
+	 * @param bestEstimate the estimate of that state
+	 * @param nodesGenerated the nodes generated
+	 * @param nodesOnFringe the states left on the fringe
+	 * @param nodesOnExplored the states on the explored list
+	 * @param peakFringe the largest the fringe grew
+	 * @param runtime the runtime in milliseconds
+	 */
+	public SearchResult(int status, String stopReason, String solution, PuzzleState best, int bestEstimate,
+			long nodesGenerated, long nodesOnFringe, long nodesOnExplored, long peakFringe, long runtime) {
+		this.status = status;
+		this.stopReason = stopReason;
+		this.solution = solution;
+		this.best = best;
+		this.bestEstimate = bestEstimate;
+		this.nodesGenerated = nodesGenerated;
+		this.nodesOnFringe = nodesOnFringe;
+		this.nodesOnExplored = nodesOnExplored;
+		this.peakFringe = peakFringe;
+		this.runtime = runtime;
+	}
+
+
+	/**
+	 * How the search ended: SOLVED, UNSOLVED (every reachable state was searched) or
+	 * CANCELLED (stopped by a budget or a cancellation token).
+	 * @return the status
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+
+	/**
+	 * The status as a word: solved, unsolved or cancelled.
+	 * @return the status name
+	 */
+	public String getStatusName() {
+		if (status == SOLVED) return "solved";
+		if (status == UNSOLVED) return "unsolved";
+		return "cancelled";
+	}
+
+
+	/**
+	 * Why the search stopped early ("time budget", "node budget", "memory budget" or
+	 * "cancelled"), or null if it ran to the end.
+	 * @return the reason the search stopped
+	 */
+	public String getStopReason() {
+		return stopReason;
+	}
+
+
+	/**
+	 * The solution as a string of move letters, or null if there is none.
+	 * @return the solution moves
+	 */
+	public String getSolution() {
+		return solution;
+	}
+
+
+	/**
+	 * The expanded state with the lowest estimate of the cost left, with the path that
+	 * led to it; the first one found wins a tie. Null if nothing was expanded.
+	 * States of the external-memory search carry no path.
+	 * @return the best partial state
+	 */
+	public PuzzleState getBestPartial() {
+		return best;
+	}
+
+
+	/**
+	 * The estimate of the best partial state: that of the search's heuristic, or for a
+	 * search without one, the total push distance of the boxes to their nearest goals.
+	 * @return the estimate of the cost left
+	 */
+	public int getBestEstimate() {
+		return bestEstimate;
+	}
+
+
+	/**
+	 * The moves that lead to the best partial state, as a string of move letters.
+	 * @return the partial solution, or null if there is no partial state
+	 */
+	public String getBestPartialMoves() {
+		return best == null ? null : best.getMoves();
+	}
+
+
+	/**
+	 * The number of nodes generated.
+	 * @return the nodes generated
+	 */
+	public long getNodesGenerated() {
+		return nodesGenerated;
+	}
+
+
+	/**
+	 * The number of states left on the fringe.
+	 * @return the fringe size
+	 */
+	public long getNodesOnFringe() {
+		return nodesOnFringe;
+	}
+
+
+	/**
+	 * The number of states on the explored list.
+	 * @return the explored list size
+	 */
+	public long getNodesOnExplored() {
+		return nodesOnExplored;
+	}
+
+
+	/**
+	 * The largest the fringe grew.
+	 * @return the peak fringe size
+	 */
+	public long getPeakFringe() {
+		return peakFringe;
+	}
+
+
+	/**
+	 * The runtime of the search.
+	 * @return the runtime in milliseconds
+	 */
+	public long getRuntime() {
+		return runtime;
+	}
+
+}
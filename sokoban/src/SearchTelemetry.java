@@ -0,0 +1,329 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Live measurements of a running search, for telling a search that is making progress
+ * from one that has stalled. The solver hands its counters over from the search loop,
+ * and they are published to readers every few dozen expansions, so the search pays for
+ * little more than a clock read per expansion. Readers can poll them through JMX (as
+ * sokoban:type=SearchTelemetry, once registered) or have a line printed at a fixed
+ * interval. The time each expansion takes is kept in a histogram with one bucket per
+ * power of two nanoseconds, which is printed when the search ends.
+ * <p>
+ * One telemetry object follows one search at a time.
+ * @author Andrew Goldin
+ */
+public class SearchTelemetry implements SearchTelemetryMBean {
+
+	/**
+	 * The JMX name the telemetry is registered under.
+	 */
+	public static final String NAME = "sokoban:type=SearchTelemetry";
+
+	// expansions between publications to readers
+	private static final int PUBLISH_MASK = 63;
+
+	// shortest window the expansion rate is measured over
+	private static final long RATE_WINDOW = 250;
+
+	private final PrintStream out;
+	private final long interval;
+	private Timer timer;
+
+	// kept by the search thread only
+	private final long[] histogram = new long[64];
+	private long count, generatedNow, duplicatesNow, fringeNow, exploredNow;
+	private int depthNow, evaluationNow;
+
+	// published for readers
+	private volatile String search = "none";
+	private volatile boolean running;
+	private volatile long started, stopped;
+	private volatile long expanded, generated, duplicates, fringe, explored;
+	private volatile int depth, evaluation, bound = -1;
+	// whether duplicates are counted per generated state instead of per expanded state
+	private volatile boolean perGenerated;
+
+	// the window of the expansion rate, shared by all readers
+	private long rateTime, rateCount, rate;
+
+
+	/**
+	 * Creates telemetry that prints to a stream.
+	 * @param out where progress lines and the final histogram go
+	 * @param interval milliseconds between progress lines, or 0 for none
+	 */
+	public SearchTelemetry(PrintStream out, long interval) {
+		this.out = out;
+		this.interval = interval;
+	}
+
+
+	/**
+	 * Registers the telemetry with the platform MBean server, so that tools such as
+	 * jconsole can watch the search.
+	 * @return false if it could not be registered
+	 */
+	public boolean register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(NAME));
+			return true;
+		} catch (JMException e) {
+			out.println("Could not register " + NAME + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+
+	/**
+	 * Clears the measurements and starts following a search.
+	 * @param searchType the name of the search
+	 */
+	public void begin(String searchType) {
+		end();
+		for (int i = 0; i < histogram.length; i++) {
+			histogram[i] = 0;
+		}
+		count = generatedNow = duplicatesNow = fringeNow = exploredNow = 0;
+		depthNow = 0;
+		evaluationNow = -1;
+		search = searchType;
+		bound = -1;
+		perGenerated = false;
+		publish();
+		started = System.currentTimeMillis();
+		synchronized (this) {
+			rateTime = started;
+			rateCount = 0;
+			rate = 0;
+		}
+		running = true;
+		if (interval > 0) {
+			timer = new Timer("search-telemetry", true);
+			timer.scheduleAtFixedRate(new TimerTask() {
+				public void run() {
+					out.println(progress());
+				}
+			}, interval, interval);
+		}
+	}
+
+
+	/**
+	 * Records one expansion. Called by the search thread.
+	 * @param nanos how long the expansion took
+	 * @param depth the depth of the expanded state
+	 * @param evaluation the A* evaluation of the expanded state, or -1
+	 */
+	public void expanded(long nanos, int depth, int evaluation) {
+		histogram[63 - Long.numberOfLeadingZeros(Math.max(1, nanos))]++;
+		depthNow = depth;
+		evaluationNow = evaluation;
+		if ((++count & PUBLISH_MASK) == 0) publish();
+	}
+
+
+	/**
+	 * Records the counters and list sizes of the search. Called by the search thread,
+	 * and published with the next expansions.
+	 * @param generated the nodes generated
+	 * @param duplicates the expanded nodes that generated a previous state
+	 * @param fringe the states on the fringe
+	 * @param explored the states on the explored list
+	 */
+	public void sizes(long generated, long duplicates, long fringe, long explored) {
+		generatedNow = generated;
+		duplicatesNow = duplicates;
+		fringeNow = fringe;
+		exploredNow = explored;
+	}
+
+
+	/**
+	 * Publishes the counters of a search that counts its own expansions (such as one
+	 * spread over several threads) straight away. No latencies are recorded for it.
+	 * @param expansions the nodes expanded
+	 * @param generated the nodes generated
+	 * @param duplicates the generated states dropped as repeats
+	 * @param fringe the states on the fringe
+	 * @param explored the states on the explored list
+	 */
+	public void counts(long expansions, long generated, long duplicates, long fringe, long explored) {
+		sizes(generated, duplicates, fringe, explored);
+		count = expansions;
+		perGenerated = true;
+		publish();
+	}
+
+
+	/**
+	 * Sets the bound of the current iteration of an iterative search.
+	 * @param value the bound
+	 */
+	public void setBound(int value) {
+		bound = value;
+	}
+
+
+	/**
+	 * Stops following the search, and prints a last progress line and the histogram of
+	 * expansion times. Does nothing if no search is being followed.
+	 */
+	public void end() {
+		if (!running) {
+			return;
+		}
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+		publish();
+		stopped = System.currentTimeMillis();
+		running = false;
+		out.println(progress());
+		out.print(histogram());
+	}
+
+
+	// private method, copies what the search thread kept to the fields readers see
+	private void publish() {
+		generated = generatedNow;
+		duplicates = duplicatesNow;
+		fringe = fringeNow;
+		explored = exploredNow;
+		depth = depthNow;
+		evaluation = evaluationNow;
+		expanded = count;
+	}
+
+
+	/**
+	 * One line describing the progress of the search.
+	 * @return the progress line
+	 */
+	public String progress() {
+		// a finished search shows its average rate
+		long rate = running ? getExpansionRate() : expanded * 1000 / Math.max(1, getElapsedMillis());
+		int f = evaluation, b = bound;
+		return String.format("[%.1f s] %s: %d expanded (%d/s%s), %d generated, fringe %d, explored %d,"
+				+ " depth %d%s%s, duplicates %.1f%%, heap %d MB",
+				getElapsedMillis() / 1000.0, search, expanded, rate,
+				running && rate == 0 ? ", no progress" : "", generated, fringe, explored, depth,
+				f >= 0 ? ", f " + f : "", b >= 0 ? ", bound " + b : "",
+				100 * getDuplicateRatio(), getHeapUsed() >> 20);
+	}
+
+
+	/**
+	 * The histogram of expansion times, one line per bucket that was hit, with the
+	 * buckets holding the median, 90th and 99th percentile.
+	 * @return the histogram, one line per bucket
+	 */
+	public String histogram() {
+		long total = 0;
+		for (long n : histogram) total += n;
+		if (total == 0) return "Expansion times: not recorded\n";
+		StringBuilder text = new StringBuilder("Expansion times (" + total + " expansions):\n");
+		long seen = 0;
+		String p50 = null, p90 = null, p99 = null;
+		for (int i = 0; i < histogram.length; i++) {
+			if (histogram[i] == 0) continue;
+			seen += histogram[i];
+			String range = duration(1L << i) + " - " + duration(1L << (i + 1));
+			text.append(String.format("  %-20s %10d  %5.1f%%%n", range, histogram[i], 100.0 * histogram[i] / total));
+			if (p50 == null && seen * 2 >= total) p50 = range;
+			if (p90 == null && seen * 10 >= total * 9) p90 = range;
+			if (p99 == null && seen * 100 >= total * 99) p99 = range;
+		}
+		text.append("  median " + p50 + ", 90th percentile " + p90 + ", 99th percentile " + p99 + "\n");
+		return text.toString();
+	}
+
+
+	// private method, a number of nanoseconds in the largest whole unit
+	private static String duration(long nanos) {
+		if (nanos < 1000L) return nanos + " ns";
+		if (nanos < 1000000L) return nanos / 1000 + " us";
+		if (nanos < 1000000000L) return nanos / 1000000 + " ms";
+		return nanos / 1000000000L + " s";
+	}
+
+
+	public String getSearchType() {
+		return search;
+	}
+
+
+	public boolean isRunning() {
+		return running;
+	}
+
+
+	public long getElapsedMillis() {
+		return (running ? System.currentTimeMillis() : stopped) - started;
+	}
+
+
+	public long getNodesExpanded() {
+		return expanded;
+	}
+
+
+	public long getNodesGenerated() {
+		return generated;
+	}
+
+
+	public synchronized long getExpansionRate() {
+		long now = System.currentTimeMillis(), done = expanded;
+		if (now - rateTime >= RATE_WINDOW) {
+			rate = (done - rateCount) * 1000 / (now - rateTime);
+			rateTime = now;
+			rateCount = done;
+		}
+		return rate;
+	}
+
+
+	public long getFringeSize() {
+		return fringe;
+	}
+
+
+	public long getExploredSize() {
+		return explored;
+	}
+
+
+	public int getDepth() {
+		return depth;
+	}
+
+
+	public int getEvaluation() {
+		return evaluation;
+	}
+
+
+	public int getBound() {
+		return bound;
+	}
+
+
+	public double getDuplicateRatio() {
+		long done = perGenerated ? generated : expanded;
+		return done == 0 ? 0 : Math.min(1, duplicates / (double) done);
+	}
+
+
+	public long getHeapUsed() {
+		Runtime heap = Runtime.getRuntime();
+		return heap.totalMemory() - heap.freeMemory();
+	}
+
+}
@@ -0,0 +1,86 @@
+/**
+ * The JMX view of a running search; see SearchTelemetry.
+ * @author Andrew Goldin
+ */
+public interface SearchTelemetryMBean {
+
+	/**
+	 * The name of the search being run, or of the last one.
+	 * @return the search type
+	 */
+	String getSearchType();
+
+	/**
+	 * Whether a search is running.
+	 * @return true between the start and the end of a search
+	 */
+	boolean isRunning();
+
+	/**
+	 * How long the search has been running, or ran.
+	 * @return the elapsed time in milliseconds
+	 */
+	long getElapsedMillis();
+
+	/**
+	 * The number of states expanded so far.
+	 * @return the nodes expanded
+	 */
+	long getNodesExpanded();
+
+	/**
+	 * The number of states generated so far.
+	 * @return the nodes generated
+	 */
+	long getNodesGenerated();
+
+	/**
+	 * The recent expansion rate, measured over at least half a second.
+	 * @return expansions per second
+	 */
+	long getExpansionRate();
+
+	/**
+	 * The number of states on the fringe.
+	 * @return the fringe size
+	 */
+	long getFringeSize();
+
+	/**
+	 * The number of states on the explored list.
+	 * @return the explored list size
+	 */
+	long getExploredSize();
+
+	/**
+	 * The depth (moves, or pushes at the push level) of the last state expanded.
+	 * @return the depth
+	 */
+	int getDepth();
+
+	/**
+	 * The A* evaluation of the last state expanded, or -1 for a search without a heuristic.
+	 * @return the evaluation
+	 */
+	int getEvaluation();
+
+	/**
+	 * The bound of the current IDA* iteration, or -1 for other searches.
+	 * @return the bound
+	 */
+	int getBound();
+
+	/**
+	 * The share of expanded states that generated a state seen before, or for a search
+	 * on several threads, the share of generated states that were repeats.
+	 * @return the duplicate ratio, from 0 to 1
+	 */
+	double getDuplicateRatio();
+
+	/**
+	 * The heap in use by the whole JVM.
+	 * @return the used heap in bytes
+	 */
+	long getHeapUsed();
+
+}
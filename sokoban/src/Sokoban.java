@@ -1,11 +1,28 @@
+import java.io.File;
+import java.util.Arrays;
 import java.util.Scanner;
 
 public class Sokoban {
 
-	// cla's: <filename> <searchtype> <depthlimit (if searchtype is DFS)> <heuristic (if searchtype is GBFS or A*)> <stats>
+	// cla's: <filename> <searchtype> <depthlimit (if searchtype is DFS, the largest to try if IDDFS)> <heuristic (if searchtype is GBFS or A*)> <p> <stats>
+	// hdastar also takes an optional thread count after the heuristic
+	// portfolio races several searches (strategies=bfs,astar:1,gbfs:2 by default); optimal waits for
+	// the first solution known to be the shortest
+	// p searches at the push level (whole box pushes instead of single steps)
+	// t prints the progress of the search to stderr every second (t=MILLIS for another interval)
+	// and makes it available over JMX
+	// time=SECONDS, nodes=N and memory=MB stop the search early; so does Ctrl-C, and the best
+	// partial state reached is reported either way
+	// cache (or cache=DIR) reuses solutions found by earlier runs, and stores new ones
 	// if only filename is provided, will start interactive game
 	public static void main(String[] args) throws Exception {
 
+		// batch mode solves a whole directory or collection of levels
+		if (args.length > 0 && args[0].equalsIgnoreCase("batch")) {
+			BatchSolver.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		
 		PuzzleState p = PuzzleState.parseFile(args[0], Solver.BFS, Solver.MANHATTAN);
 		
 		// if only one argument, start interactive game
@@ -38,30 +55,168 @@ public class Sokoban {
 		else {
 			boolean includeStats = args[args.length - 1].equalsIgnoreCase("s") ? true : false;
 			Solver s = new Solver(includeStats);
+			s.setLevelFile(args[0]);
+			long time = 0, nodes = 0, states = 0;
+			boolean push = false, symmetry = false, macros = false, optimal = false;
+			String strategies = PortfolioSolver.DEFAULT_STRATEGIES;
+			SolutionCache cache = null;
+			for (int i = 2; i < args.length; i++) {
+				if (args[i].equalsIgnoreCase("p")) push = true;
+				if (args[i].equalsIgnoreCase("sym")) symmetry = true;
+				if (args[i].equalsIgnoreCase("macro")) macros = true;
+				if (args[i].equalsIgnoreCase("optimal")) optimal = true;
+				if (args[i].startsWith("strategies=")) strategies = args[i].substring(11);
+				if (args[i].equalsIgnoreCase("cache")) {
+					cache = new SolutionCache(SolutionCache.defaultDirectory(), SolutionCache.DEFAULT_BYTES);
+				}
+				if (args[i].startsWith("cache=")) {
+					cache = new SolutionCache(new File(args[i].substring(6)), SolutionCache.DEFAULT_BYTES);
+				}
+				if (args[i].equalsIgnoreCase("t") || args[i].startsWith("t=")) {
+					long interval = args[i].length() > 2 ? Long.parseLong(args[i].substring(2)) : 1000;
+					SearchTelemetry telemetry = new SearchTelemetry(System.err, interval);
+					telemetry.register();
+					s.setTelemetry(telemetry);
+				}
+				if (args[i].startsWith("time=")) time = (long) (Double.parseDouble(args[i].substring(5)) * 1000);
+				if (args[i].startsWith("nodes=")) nodes = Long.parseLong(args[i].substring(6));
+				if (args[i].startsWith("memory=")) states = BatchSolver.statesFor(Long.parseLong(args[i].substring(7)) << 20, p);
+			}
+			s.setPushLevel(push);
+			s.setSymmetry(symmetry);
+			s.setMacroMoves(macros);
+			s.setBudget(time, states, nodes);
+			
+			// Ctrl-C cancels the search, and the report of how far it got is still printed
+			final CancellationToken token = new CancellationToken();
+			s.setCancellationToken(token);
+			final Thread searching = Thread.currentThread();
+			Thread hook = new Thread() {
+				public void run() {
+					token.cancel();
+					try {
+						searching.join(5000);
+					} catch (InterruptedException e) {
+						// exit without the report
+					}
+				}
+			};
+			Runtime.getRuntime().addShutdownHook(hook);
+			
+			final long began = System.currentTimeMillis();
+			s.setSolutionListener(new SolutionListener() {
+				public void improved(String solution, int cost, double bound) {
+					System.out.println("Solution of cost " + cost + " after " + (System.currentTimeMillis() - began) / 1000.0
+							+ " seconds, " + (Double.isInfinite(bound) ? "with no bound on its cost"
+							: "at most " + String.format("%.3f", bound) + " times the cheapest"));
+				}
+			});
 			
 			System.out.println("Working . . .\n");
 			
-			if (args[1].equalsIgnoreCase("bfs")) {
-				s.breadthFirstSearch(p);
-			}
-			else if (args[1].equalsIgnoreCase("ucs")) {
-				s.uniformCostSearch(p);
-			}
-			else if (args[1].equalsIgnoreCase("dfs")) {
-				s.depthFirstSearch(p, Integer.parseInt(args[2]));
+			// portfolio mode races several searches, each on a solver of its own
+			if (args[1].equalsIgnoreCase("portfolio")) {
+				PortfolioSolver race = new PortfolioSolver(PortfolioSolver.parseStrategies(strategies), push,
+						includeStats, time, states, nodes);
+				race.setOptimal(optimal);
+				race.setSymmetry(symmetry);
+				race.setMacroMoves(macros);
+				race.setLevelFile(args[0]);
+				Solver winner = race.run(p, token);
+				System.out.println(race.report());
+				if (winner != null) System.out.println("\n" + winner.report());
 			}
-			else if (args[1].equalsIgnoreCase("gbfs")) {
-				int heuristic = args[2].equals("1") ? Solver.MANHATTAN : Solver.STRAIGHT_LINE;
-				s.greedyBestFirstSearch(p, heuristic);
+			else {
+				String key = SolutionCache.searchKey(args, push);
+				if (cache == null || !s.solveFromCache(p, cache, key)) {
+					search(s, p, args);
+					if (cache != null) cache.put(p, key, s.getResult());
+				}
+				System.out.println(s.report());
 			}
-			else if (args[1].equalsIgnoreCase("astar")) {
-				int heuristic = args[2].equals("1") ? Solver.MANHATTAN : Solver.STRAIGHT_LINE;
-				s.aStarSearch(p, heuristic);
+			try {
+				Runtime.getRuntime().removeShutdownHook(hook);
+			} catch (IllegalStateException e) {
+				// already shutting down, and the hook is waiting for this thread
 			}
-			
-			System.out.println(s.report());
 		}
 
 	}
+	
+	
+	/**
+	 * Runs the search named on the command line: args[1] is the search type and args[2]
+	 * (and args[3] for hdastar) its parameter, as for main.
+	 * @param s the solver to run the search on
+	 * @param p the puzzle start state
+	 * @param args the command line arguments
+	 * @return false if the search type is not known
+	 */
+	public static boolean search(Solver s, PuzzleState p, String[] args) throws Exception {
+		if (args[1].equalsIgnoreCase("bfs")) {
+			s.breadthFirstSearch(p);
+		}
+		else if (args[1].equalsIgnoreCase("ucs")) {
+			s.uniformCostSearch(p);
+		}
+		else if (args[1].equalsIgnoreCase("ebfs")) {
+			s.externalBreadthFirstSearch(p);
+		}
+		else if (args[1].equalsIgnoreCase("bidir")) {
+			s.bidirectionalSearch(p);
+		}
+		else if (args[1].equalsIgnoreCase("dfs")) {
+			s.depthFirstSearch(p, Integer.parseInt(args[2]));
+		}
+		else if (args[1].equalsIgnoreCase("iddfs")) {
+			s.iterativeDeepeningSearch(p, Integer.parseInt(args[2]));
+		}
+		else if (args[1].equalsIgnoreCase("gbfs")) {
+			int heuristic = parseHeuristic(args[2]);
+			s.greedyBestFirstSearch(p, heuristic);
+		}
+		else if (args[1].equalsIgnoreCase("astar")) {
+			int heuristic = parseHeuristic(args[2]);
+			s.aStarSearch(p, heuristic);
+		}
+		else if (args[1].equalsIgnoreCase("wastar")) {
+			int heuristic = parseHeuristic(args[2]);
+			s.weightedAStarSearch(p, heuristic, parseWeight(args, 2));
+		}
+		else if (args[1].equalsIgnoreCase("ara")) {
+			int heuristic = parseHeuristic(args[2]);
+			s.anytimeAStarSearch(p, heuristic, parseWeight(args, 3));
+		}
+		else if (args[1].equalsIgnoreCase("idastar")) {
+			int heuristic = parseHeuristic(args[2]);
+			s.idaStarSearch(p, heuristic);
+		}
+		else if (args[1].equalsIgnoreCase("hdastar")) {
+			int heuristic = parseHeuristic(args[2]);
+			// an optional thread count follows the heuristic
+			int threads = args.length > 3 && args[3].matches("\\d+") ? Integer.parseInt(args[3])
+					: Runtime.getRuntime().availableProcessors();
+			s.hashDistributedAStarSearch(p, heuristic, Math.max(1, threads));
+		}
+		else {
+			return false;
+		}
+		return true;
+	}
+	
+	
+	// the weight that follows the heuristic for wastar and ara, or a default if there is none
+	private static double parseWeight(String[] args, double fallback) {
+		return args.length > 3 && args[3].matches("\\d+(\\.\\d+)?") ? Double.parseDouble(args[3]) : fallback;
+	}
+	
+	
+	// the heuristic constant for a command line argument; anything unknown is straight line distance
+	private static int parseHeuristic(String arg) {
+		if (arg.equals("1")) return Solver.MANHATTAN;
+		if (arg.equals("3")) return Solver.MATCHING;
+		if (arg.equals("4")) return Solver.PATTERN_DATABASE;
+		return Solver.STRAIGHT_LINE;
+	}
 
 }
\ No newline at end of file
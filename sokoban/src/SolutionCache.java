@@ -0,0 +1,274 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+
+/**
+ * Solutions found by earlier runs, kept on disk so that a level solved once is not
+ * searched again. A level is keyed by a fingerprint of the parsed grid, so a file
+ * that differs only in trailing whitespace or in its row-count line finds the same
+ * entry; the search arguments are part of the key, since different searches find
+ * different solutions.
+ * <p>
+ * Each entry is a small file holding the moves and the statistics of the search that
+ * found them. Entries are checked on load by replaying the moves from the start
+ * state, and one that does not solve the level is dropped. The store is bounded in
+ * size: when it grows past its limit, the entries used longest ago are removed
+ * (a hit marks an entry as used by touching its file).
+ * @author Andrew Goldin
+ */
+public class SolutionCache {
+
+	/**
+	 * The default limit on the size of a cache directory: 16 MB.
+	 */
+	public static final long DEFAULT_BYTES = 1 << 24;
+
+	private static final String SUFFIX = ".sol";
+
+	private final File dir;
+	private final long maxBytes;
+
+
+	/**
+	 * Opens a cache directory, creating it if needed.
+	 * @param dir the directory holding the entries
+	 * @param maxBytes the most bytes the entries may take before old ones are evicted
+	 */
+	public SolutionCache(File dir, long maxBytes) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		dir.mkdirs();
+	}
+
+
+	/**
+	 * The default cache directory: .sokoban-cache in the user's home directory.
+	 * @return the default directory
+	 */
+	public static File defaultDirectory() {
+		return new File(System.getProperty("user.home"), ".sokoban-cache");
+	}
+
+
+	/**
+	 * The canonical form of a level: its grid as parsed, one line per row, with trailing
+	 * whitespace and trailing blank rows removed.
+	 * @param start the start state of the level
+	 * @return the canonical level text
+	 */
+	public static String canonical(PuzzleState start) {
+		StringBuilder text = new StringBuilder();
+		for (String row : start.toString().split("\n")) {
+			int end = row.length();
+			while (end > 0 && Character.isWhitespace(row.charAt(end - 1))) end--;
+			text.append(row, 0, end).append('\n');
+		}
+		int end = text.length();
+		while (end > 0 && text.charAt(end - 1) == '\n') end--;
+		return text.substring(0, end);
+	}
+
+
+	/**
+	 * The fingerprint of a level: a 128-bit hash of its canonical form, in hexadecimal.
+	 * @param start the start state of the level
+	 * @return the level fingerprint
+	 */
+	public static String fingerprint(PuzzleState start) {
+		return hash(canonical(start));
+	}
+
+
+	/**
+	 * The part of a command line that decides which solution a search finds: the search
+	 * type and its parameters, and whether it runs at the push level. The file name and
+	 * the options that only change reporting or budgets are left out.
+	 * @param args the command line, starting with the file name
+	 * @param push whether the search runs at the push level
+	 * @return the search key
+	 */
+	public static String searchKey(String[] args, boolean push) {
+		StringBuilder key = new StringBuilder();
+		for (int i = 1; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.contains("=") || arg.equalsIgnoreCase("p") || arg.equalsIgnoreCase("s")
+					|| arg.equalsIgnoreCase("t") || arg.equalsIgnoreCase("cache")) continue;
+			if (key.length() > 0) key.append(' ');
+			key.append(arg.toLowerCase());
+		}
+		return push ? key + " p" : key.toString();
+	}
+
+
+	/**
+	 * Looks up the solution a search found for a level before. The entry is replayed
+	 * from the start state and dropped if its moves do not solve the level.
+	 * @param start the start state of the level, searched by single steps
+	 * @param search the search key
+	 * @return the cached result, or null if there is none
+	 */
+	public SearchResult get(PuzzleState start, String search) {
+		String level = fingerprint(start);
+		File file = entry(level, search);
+		if (!file.isFile()) {
+			return null;
+		}
+		Properties entry = new Properties();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			entry.load(in);
+		} catch (IOException e) {
+			return null;
+		} finally {
+			close(in);
+		}
+		String moves = entry.getProperty("moves");
+		PuzzleState end = moves == null ? null : start.replay(moves);
+		SearchResult result = null;
+		try {
+			if (level.equals(entry.getProperty("level")) && search.equals(entry.getProperty("search"))
+					&& end != null && end.isGoalState()) {
+				result = new SearchResult(SearchResult.SOLVED, null, moves, null, 0,
+						Long.parseLong(entry.getProperty("nodes", "0")),
+						Long.parseLong(entry.getProperty("fringe", "0")),
+						Long.parseLong(entry.getProperty("explored", "0")),
+						Long.parseLong(entry.getProperty("peak", "0")),
+						Long.parseLong(entry.getProperty("runtime", "0")));
+			}
+		} catch (NumberFormatException e) {
+			result = null;
+		}
+		if (result == null) {
+			file.delete();
+		}
+		else {
+			file.setLastModified(System.currentTimeMillis());
+		}
+		return result;
+	}
+
+
+	/**
+	 * Stores the solution a search found for a level, replacing any entry it had, and
+	 * evicts the entries used longest ago if the cache has grown too large. Results
+	 * without a solution are not stored.
+	 * @param start the start state of the level
+	 * @param search the search key
+	 * @param result the result of the search
+	 */
+	public void put(PuzzleState start, String search, SearchResult result) {
+		if (result.getStatus() != SearchResult.SOLVED) {
+			return;
+		}
+		String level = fingerprint(start);
+		Properties entry = new Properties();
+		entry.setProperty("level", level);
+		entry.setProperty("search", search);
+		entry.setProperty("moves", result.getSolution());
+		entry.setProperty("nodes", Long.toString(result.getNodesGenerated()));
+		entry.setProperty("fringe", Long.toString(result.getNodesOnFringe()));
+		entry.setProperty("explored", Long.toString(result.getNodesOnExplored()));
+		entry.setProperty("peak", Long.toString(result.getPeakFringe()));
+		entry.setProperty("runtime", Long.toString(result.getRuntime()));
+		// write to a temporary file and rename it, so that a reader never sees half an entry
+		File file = entry(level, search);
+		File temporary = new File(dir, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(temporary);
+			entry.store(out, "sokoban solution");
+			out.close();
+			out = null;
+			file.delete();
+			if (!temporary.renameTo(file)) temporary.delete();
+		} catch (IOException e) {
+			System.err.println("Could not write solution cache entry " + file + ": " + e.getMessage());
+			temporary.delete();
+		} finally {
+			close(out);
+		}
+		evict();
+	}
+
+
+	// private method, removes the entries used longest ago until the cache fits its limit
+	private void evict() {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		long total = 0;
+		for (File f : files) {
+			if (f.getName().endsWith(SUFFIX)) total += f.length();
+		}
+		if (total <= maxBytes) {
+			return;
+		}
+		final long[] used = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; i++) {
+			used[i] = files[i].lastModified();
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(used[a], used[b]);
+			}
+		});
+		for (int i = 0; i < order.length && total > maxBytes; i++) {
+			File f = files[order[i]];
+			if (!f.getName().endsWith(SUFFIX)) continue;
+			long length = f.length();
+			if (f.delete()) total -= length;
+		}
+	}
+
+
+	// private method, the file of the entry for a level and a search
+	private File entry(String level, String search) {
+		return new File(dir, hash(level + "\n" + search) + SUFFIX);
+	}
+
+
+	// private method, a 128-bit hash of a string in hexadecimal: two 64-bit hashes (FNV-1a, and
+	// a polynomial hash with a final mix) that share no constants; a message digest would cost
+	// more to load than a cache hit is worth
+	private static String hash(String text) {
+		long fnv = 0xcbf29ce484222325L, poly = 0x9e3779b97f4a7c15L;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			fnv = (fnv ^ c) * 0x100000001b3L;
+			poly = poly * 0xff51afd7ed558ccdL + c;
+		}
+		poly ^= poly >>> 33;
+		poly *= 0xc4ceb9fe1a85ec53L;
+		poly ^= poly >>> 33;
+		return hex(fnv) + hex(poly);
+	}
+
+
+	// private method, a long as 16 hexadecimal digits
+	private static String hex(long value) {
+		String digits = Long.toHexString(value);
+		return "0000000000000000".substring(digits.length()) + digits;
+	}
+
+
+	// private method, closes a stream quietly
+	private static void close(Closeable stream) {
+		try {
+			if (stream != null) stream.close();
+		} catch (IOException e) {
+			// nothing left to do with the stream
+		}
+	}
+
+}
@@ -0,0 +1,18 @@
+/**
+ * Receives the solutions of an anytime search as it finds them: first a quick one,
+ * then cheaper ones for as long as the search is allowed to run. Each solution comes
+ * with a bound on how far it can be from the cheapest.
+ * @author Andrew Goldin
+ */
+public interface SolutionListener {
+
+	/**
+	 * Called on the searching thread each time the search has a cheaper solution.
+	 * @param solution the move letters (u, d, l, r, upper case for a push)
+	 * @param cost the cost of the solution: its moves, or its pushes at the push level
+	 * @param bound no solution costs less than cost / bound; infinite when the search
+	 * cannot tell, as with a heuristic that may overestimate
+	 */
+	void improved(String solution, int cost, double bound);
+
+}
@@ -1,5 +1,14 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.PriorityQueue;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Solver {
 
@@ -10,17 +19,66 @@ public class Solver {
 			A_STAR = 5;
 	
 	public static final int MANHATTAN = 1,
-			STRAIGHT_LINE = 2;
+			STRAIGHT_LINE = 2,
+			MATCHING = 3,
+			PATTERN_DATABASE = 4;
+	
+	// IDA* transposition table size: 2^20 slots, 16 bytes each
+	private static final int TABLE_BITS = 20;
+	
+	// external-memory BFS: bytes of generated states sorted in memory before a run is written
+	private static final int RUN_BYTES = 1 << 25;
+	
+	// anytime A*: how much the weight drops between searches
+	private static final double WEIGHT_STEP = 0.5;
 	
 	private long nodesGenerated;
 	private long nodesWithPrevStates;
 	private long nodesOnFringe;
 	private long nodesOnExplored;
+	private long nodesPruned;
+	private long nodesDeadlocked;
+	private long nodesExpanded;
+	private long peakFringe;
+	
+	// limits set by setBudget (0 for none), and why the last search stopped early (null if it did not)
+	private long timeBudget, stateBudget, nodeBudget, deadline, budgetChecks;
+	private String stopReason;
+	private CancellationToken cancellation;
+	
+	// the states on the fringe and explored list at the last budget check, for watching a
+	// search from another thread
+	private volatile long statesHeld;
+	
+	// the expanded state with the lowest estimate, for a search that stops without a solution
+	private PuzzleState bestPartial;
+	private int bestEstimate;
+	
+	private DeadlockDetector detector;
+	private MatchingHeuristic matcher;
+	private PatternDatabase patterns;
 	private long runtime;
 	
-	private boolean foundExplored, statistics;
+	// live measurements of the running search, or null
+	private SearchTelemetry telemetry;
 	
-	private String board, sequence, searchType, heuristic;
+	// told about each cheaper solution an anytime search finds, or null
+	private SolutionListener listener;
+	
+	private boolean foundExplored, statistics, pushLevel, symmetry, macros;
+	
+	private String board, sequence, searchType, heuristic, iterationReport, detailReport, levelFile, symmetries, macroReport;
+	
+	// IDA* only: the iteration being searched and the smallest evaluation cut off so far
+	private int iteration, nextBound;
+	
+	// hash-distributed A* only: each worker's inbox, the messages in flight plus the workers
+	// still busy, and the cheapest solution found so far
+	private List<ConcurrentLinkedQueue<PuzzleState>> inboxes;
+	private AtomicLong outstanding;
+	private volatile int bestCost;
+	private volatile boolean halted;
+	private PuzzleState bestGoal;
 	
 	/**
 	 * Default constructor.
@@ -28,6 +86,192 @@ public class Solver {
 	public Solver(boolean stat) {
 		foundExplored = false;
 		statistics = stat;
+		pushLevel = false;
+		iterationReport = "";
+		detailReport = "";
+	}
+	
+	
+	/**
+	 * Sets whether searches expand whole box pushes instead of single player steps.
+	 * In push-level mode a state is a box configuration plus the region the player
+	 * can reach, and depth limits and costs are counted in pushes.
+	 * @param push true to search at the push level
+	 */
+	public void setPushLevel(boolean push) {
+		pushLevel = push;
+	}
+	
+	
+	/**
+	 * Sets whether searches treat the rotations and reflections of a state as repeats of
+	 * it, when they map the level onto itself (see Board.getSymmetryCount). A symmetric
+	 * level then has up to eight times fewer states to search, and the solutions found
+	 * are still as short.
+	 * @param reduce true to detect duplicates up to symmetry
+	 */
+	public void setSymmetry(boolean reduce) {
+		symmetry = reduce;
+	}
+	
+	
+	/**
+	 * Sets whether push-level searches make macro pushes: a box pushed into a tunnel goes
+	 * all the way through it, and a box pushed into the goal room goes straight to the
+	 * next goal of the room's fill order (see PuzzleState.generatePushes). Each macro is a
+	 * single step of the search, so there are fewer states to search, though a solution
+	 * may then take more pushes than the fewest possible.
+	 * @param macro true to make macro pushes
+	 */
+	public void setMacroMoves(boolean macro) {
+		macros = macro;
+	}
+	
+	
+	/**
+	 * Limits the searches that follow. A search that runs out of time, or holds more
+	 * states than allowed on its fringe and explored list, stops without a solution.
+	 * The limits are checked by every search; the external-memory search keeps its
+	 * states on disk, so it has no state limit.
+	 * @param millis the longest a search may run, in milliseconds, or 0 for no limit
+	 * @param states the most states a search may hold, or 0 for no limit
+	 */
+	public void setBudget(long millis, long states) {
+		setBudget(millis, states, 0);
+	}
+	
+	
+	/**
+	 * Limits the searches that follow, as setBudget(millis, states) does, and also
+	 * stops a search once it has generated a given number of nodes.
+	 * @param millis the longest a search may run, in milliseconds, or 0 for no limit
+	 * @param states the most states a search may hold, or 0 for no limit
+	 * @param nodes the most nodes a search may generate, or 0 for no limit
+	 */
+	public void setBudget(long millis, long states, long nodes) {
+		timeBudget = millis;
+		stateBudget = states;
+		nodeBudget = nodes;
+	}
+	
+	
+	/**
+	 * Lets the searches that follow be stopped from another thread. A cancelled search
+	 * stops at its next expansion, as if it had run out of budget.
+	 * @param token the token to watch, or null for none
+	 */
+	public void setCancellationToken(CancellationToken token) {
+		cancellation = token;
+	}
+	
+	
+	/**
+	 * The outcome of the last search: its status (solved, unsolved, or cancelled by a
+	 * budget or a token), its statistics, and the best partial state it reached.
+	 * @return the search result
+	 */
+	public SearchResult getResult() {
+		int status = sequence != null ? SearchResult.SOLVED
+				: stopReason != null ? SearchResult.CANCELLED : SearchResult.UNSOLVED;
+		return new SearchResult(status, stopReason, getSolution(), bestPartial, bestEstimate, nodesGenerated,
+				nodesOnFringe, nodesOnExplored, peakFringe, runtime);
+	}
+	
+	
+	/**
+	 * Has the searches that follow report their progress while they run: expansions,
+	 * fringe and explored list sizes, depth and bound, duplicates, and the time each
+	 * expansion takes.
+	 * @param watch the telemetry to update, or null for none
+	 */
+	public void setTelemetry(SearchTelemetry watch) {
+		telemetry = watch;
+	}
+	
+	
+	/**
+	 * Has the anytime searches that follow publish each cheaper solution as they find it.
+	 * @param watch the listener to call, or null for none
+	 */
+	public void setSolutionListener(SolutionListener watch) {
+		listener = watch;
+	}
+	
+	
+	/**
+	 * Determines if the last search found a solution.
+	 * @return true if a solution was found
+	 */
+	public boolean isSolved() {
+		return sequence != null;
+	}
+	
+	
+	/**
+	 * The solution found by the last search as a string of move letters (u, d, l, r,
+	 * upper case for a push), or null if there is none.
+	 * @return the solution moves
+	 */
+	public String getSolution() {
+		return sequence == null ? null : sequence.replace(", ", "");
+	}
+	
+	
+	/**
+	 * Why the last search stopped before it was done ("time budget", "node budget",
+	 * "memory budget" or "cancelled"), or null if it ran to the end.
+	 * @return the reason the search stopped early
+	 */
+	public String getStopReason() {
+		return stopReason;
+	}
+	
+	
+	/**
+	 * The number of nodes generated by the last search.
+	 * @return the nodes generated
+	 */
+	public long getNodesGenerated() {
+		return nodesGenerated;
+	}
+	
+	
+	/**
+	 * The largest the fringe of the last search grew. For IDA* this is the deepest
+	 * path, and for bidirectional search the two frontiers together.
+	 * @return the peak fringe size
+	 */
+	public long getPeakFringe() {
+		return peakFringe;
+	}
+	
+	
+	/**
+	 * The number of states the running search holds on its fringe and explored list, as
+	 * of its last budget check; safe to read from another thread while it runs.
+	 * @return the states held
+	 */
+	public long getStatesHeld() {
+		return statesHeld;
+	}
+	
+	
+	/**
+	 * The runtime of the last search in milliseconds.
+	 * @return the runtime
+	 */
+	public long getRuntime() {
+		return runtime;
+	}
+	
+	
+	/**
+	 * Sets the file the level was read from. Pattern databases are stored next to it,
+	 * so that later solves of the same level can load them instead of building them.
+	 * @param filename the level file, or null to keep pattern databases in memory only
+	 */
+	public void setLevelFile(String filename) {
+		levelFile = filename;
 	}
 	
 	
@@ -37,18 +281,63 @@ public class Solver {
 	 */
 	public String report() {
 		String report = "Board:\n" + board
-				+ "\nSearch type: " + searchType
+				+ "\nSearch type: " + searchType + (pushLevel ? " (push level)" : "")
 				+ (heuristic.length() > 0 ? " (Cost heuristic: " + heuristic + ")" : "")
+				+ (symmetry ? "\nSymmetries: " + symmetries : "")
+				+ (macros ? "\nMacro pushes: " + macroReport : "")
 				+ "\nSequence: " + sequence
+				+ (stopReason != null ? "\nStopped early: "
+						+ (stopReason.endsWith("budget") ? "over the " + stopReason : stopReason) : "")
+				+ (sequence == null && bestPartial != null ? "\nBest partial state (estimate "
+						+ bestEstimate + "): " + bestPartial.getSequence() : "")
 				+ (statistics ? "\n\nStatistics:\nNodes generated: " + nodesGenerated
 						+ "\nNodes containing previous states: " + nodesWithPrevStates
-						+ "\nNodes on the fringe: " + nodesOnFringe
+						+ "\nNodes on the fringe: " + nodesOnFringe + " (peak " + peakFringe + ")"
 						+ "\nNodes on explored list: " + nodesOnExplored
+						+ "\nNodes pruned (dead squares): " + nodesPruned
+						+ "\nNodes pruned (deadlocks): " + nodesDeadlocked
+						+ (iterationReport.length() > 0 ? "\nIterations: " + iteration
+								+ " (nodes expanded per iteration: " + iterationReport + ")" : "")
+						+ detailReport
+						+ "\nDeadlock checks: " + detector.getChecks() + " (" + hitRate() + "% deadlocked, "
+						+ averageCheckTime() + " microseconds per check)"
 						+ "\nTotal runtime: " + (((double) runtime) / 1000) + " seconds" : "");
 		return report;
 	}
 	
 	
+	/**
+	 * Takes the solution of a level from a solution cache instead of searching. On a hit
+	 * the solver reports the cached solution, with the statistics of the search that
+	 * found it, and the runtime is the time the lookup took.
+	 * @param start the puzzle start state
+	 * @param cache the cache to look in
+	 * @param search the search key, as made by SolutionCache.searchKey
+	 * @return true on a hit, false if the level has to be searched
+	 */
+	public boolean solveFromCache(PuzzleState start, SolutionCache cache, String search) {
+		searchType = "cached solution (" + search.replaceFirst(" p$", "") + ")";
+		heuristic = "";
+		iterationReport = "";
+		detailReport = "";
+		board = start.toString();
+		startSearch(start.getBoard());
+		SearchResult cached = cache.get(start, search);
+		if (cached == null) {
+			stopClock();
+			return false;
+		}
+		sequence = start.replay(cached.getSolution()).getSequence();
+		nodesGenerated = cached.getNodesGenerated();
+		nodesOnFringe = cached.getNodesOnFringe();
+		nodesOnExplored = cached.getNodesOnExplored();
+		peakFringe = cached.getPeakFringe();
+		stopClock();
+		detailReport = "\nFound by a search that took " + (cached.getRuntime() / 1000.0) + " seconds";
+		return true;
+	}
+	
+	
 	/**
 	 * Performs a breadth first search to find the solution.
 	 * @param start the puzzle start state
@@ -58,45 +347,257 @@ public class Solver {
 		board = start.toString();
 		searchType = "breadth-first search";
 		heuristic = "";
+		matcher = null;
+		patterns = null;
+		iterationReport = "";
+		detailReport = "";
 		
 		start = start.setSearchType(BFS);
+		if (pushLevel) start = start.setPushLevel();
+		if (symmetry) start = start.setSymmetric();
 		
-		runtime = System.currentTimeMillis();
-		nodesGenerated = 0;
-		nodesWithPrevStates = 0;
+		startSearch(start.getBoard());
 		LinkedList<PuzzleState> fringe = new LinkedList<PuzzleState>();
-		LinkedList<PuzzleState> explored = new LinkedList<PuzzleState>();
+		// the explored list keeps the path to each state, so the states on the fringe hold no parents
+		StateStore explored = new StateStore(start);
+		explored.add(start, 0, -1);
 		fringe.add(start);
-		while (!fringe.isEmpty()) {
+		while (!fringe.isEmpty() && !overBudget(fringe.size(), explored.size())) {
 			PuzzleState current = fringe.remove();
+			int index = explored.find(current);
 			if (current.isGoalState()) {
 				// set stats
-				runtime = System.currentTimeMillis() - runtime;
-				sequence = current.getSequence();
+				stopClock();
+				sequence = rebuildPath(start, explored, index).getSequence();
 				nodesOnFringe = fringe.size();
 				nodesOnExplored = explored.size();
 				return;
 			}
 			foundExplored = false;
-			for (int i = PuzzleState.UP; i <= PuzzleState.RIGHT; i++) {
-				// add moves to the fringe if they are valid and do not point back to the previous state
-				if (current.canMove(i)) {
-					nodesGenerated++;
-					PuzzleState next = current.generateMove(i);
-					if (!explored.contains(next)) {
-						fringe.add(next);
-						explored.add(next);
-					}
-					else {
-						foundExplored = true;
-					}
+			// add moves to the fringe if they do not point back to a previous state
+			for (PuzzleState next : expand(current)) {
+				nodesGenerated++;
+				if (explored.add(next, next.getNumMoves(), index) >= 0) {
+					next.detach();
+					fringe.add(next);
+				}
+				else {
+					foundExplored = true;
 				}
 			}
+			peakFringe = Math.max(peakFringe, fringe.size());
 			if (foundExplored) nodesWithPrevStates++;
 		}
+		stopClock();
+		rebuildPartial(start, explored);
+		nodesOnFringe = fringe.size();
+		nodesOnExplored = explored.size();
 	}
 
 	
+	/**
+	 * Performs a breadth first search that keeps its states on disk instead of on the heap.
+	 * The search goes one layer at a time: the states of a layer are read back from a
+	 * file, their children are packed, sorted in memory-sized runs and written out, and
+	 * the runs are then merged against the sorted file of every state seen so far. That
+	 * merge drops the repeats (delayed duplicate detection) and writes the next layer.
+	 * Memory stays bounded no matter how many states there are; the disk sets the limit.
+	 * The solution path is recovered afterward by scanning the layers backward.
+	 * @param start the puzzle start state
+	 */
+	public void externalBreadthFirstSearch(PuzzleState start) throws IOException {
+		
+		board = start.toString();
+		searchType = "external-memory breadth-first search";
+		heuristic = "";
+		matcher = null;
+		patterns = null;
+		iterationReport = "";
+		
+		start = start.setSearchType(BFS);
+		if (pushLevel) start = start.setPushLevel();
+		if (symmetry) start = start.setSymmetric();
+		
+		startSearch(start.getBoard());
+		int recordSize = 2 * (start.getBoxes().length + 1);
+		File dir = Files.createTempDirectory("sokoban-bfs").toFile();
+		try {
+			byte[] packed = new byte[recordSize];
+			pack(start, packed, 0);
+			// the layers are kept for recovering the path; the seen file is rewritten every layer
+			List<StateFile> layers = new ArrayList<StateFile>();
+			StateFile layer = new StateFile(new File(dir, "layer-0"), recordSize);
+			StateFile seen = new StateFile(new File(dir, "seen-0"), recordSize);
+			for (StateFile f : new StateFile[] { layer, seen }) {
+				StateFile.Writer out = f.openWriter();
+				out.write(packed, 0);
+				out.close();
+			}
+			layers.add(layer);
+			
+			byte[] run = new byte[Math.max(1, RUN_BYTES / recordSize) * recordSize];
+			byte[] goal = null;
+			long largest = 1, peakBytes = 0, runsWritten = 0;
+			while (goal == null && layer.size() > 0 && stopReason == null) {
+				// expand the layer into sorted runs of children
+				List<StateFile> runs = new ArrayList<StateFile>();
+				int used = 0;
+				StateFile.Reader in = layer.openReader();
+				try {
+					// the states are on disk, so only the clock, the node count and the token can stop it
+					while (goal == null && !checkBudget(0, 0, (++budgetChecks & 127) == 0) && in.next()) {
+						PuzzleState current = unpack(start, in.record);
+						if (current.isGoalState()) {
+							goal = in.record.clone();
+							break;
+						}
+						for (PuzzleState next : expand(current)) {
+							nodesGenerated++;
+							if (used == run.length) {
+								runs.add(writeRun(dir, runs.size(), run, used, recordSize));
+								used = 0;
+							}
+							pack(next, run, used);
+							used += recordSize;
+						}
+					}
+				} finally {
+					in.close();
+				}
+				if (goal != null || stopReason != null) {
+					deleteAll(runs);
+					break;
+				}
+				runs.add(writeRun(dir, runs.size(), run, used, recordSize));
+				runsWritten += runs.size();
+			
+				// merge the runs against everything seen so far
+				StateFile next = new StateFile(new File(dir, "layer-" + layers.size()), recordSize);
+				StateFile seenNext = new StateFile(new File(dir, "seen-" + layers.size()), recordSize);
+				long bytes = seen.bytes() + seenNext.bytes();
+				nodesWithPrevStates += StateFile.mergeNew(runs, seen, next, seenNext);
+				for (StateFile f : runs) bytes += f.bytes();
+				for (StateFile f : layers) bytes += f.bytes();
+				peakBytes = Math.max(peakBytes, bytes + seenNext.bytes() + next.bytes());
+				deleteAll(runs);
+				seen.delete();
+				seen = seenNext;
+				layer = next;
+				layers.add(layer);
+				largest = Math.max(largest, layer.size());
+				if (telemetry != null) {
+					telemetry.sizes(nodesGenerated, nodesWithPrevStates, layer.size(), seen.size());
+				}
+			}
+			if (goal != null) {
+				// replaying the path expands states again; keep that out of the statistics
+				long pruned = nodesPruned, deadlocked = nodesDeadlocked;
+				SearchTelemetry watching = telemetry;
+				telemetry = null;
+				sequence = rebuildPath(start, layers, goal).getSequence();
+				telemetry = watching;
+				nodesPruned = pruned;
+				nodesDeadlocked = deadlocked;
+			}
+			stopClock();
+			nodesOnFringe = layer.size();
+			nodesOnExplored = seen.size();
+			peakFringe = largest;
+			detailReport = "\nLayers: " + (layers.size() - 1) + " (largest " + largest + " states, "
+					+ recordSize + " bytes per state)"
+					+ "\nSorted runs written: " + runsWritten
+					+ "\nPeak disk use: " + Math.round(peakBytes / 1024.0) + " KB";
+		} finally {
+			// removes whatever is left, also when the search ends in an exception or runs out of memory
+			File[] left = dir.listFiles();
+			if (left != null) {
+				for (File f : left) {
+					f.delete();
+				}
+			}
+			dir.delete();
+		}
+	}
+	
+	
+	// external-memory BFS: sorts a block of packed children and writes it as a run file
+	private StateFile writeRun(File dir, int index, byte[] data, int used, int recordSize) throws IOException {
+		StateFile file = new StateFile(new File(dir, "run-" + index), recordSize);
+		file.writeRun(data, used / recordSize);
+		return file;
+	}
+	
+	
+	// external-memory BFS: removes a list of state files from disk
+	private void deleteAll(List<StateFile> files) {
+		for (StateFile f : files) {
+			f.delete();
+		}
+	}
+	
+	
+	// external-memory BFS: packs the boxes and player of a state as big-endian shorts; with
+	// symmetry reduction the canonical image is packed, so that images merge as repeats
+	private void pack(PuzzleState state, byte[] out, int offset) {
+		state = state.getCanonical();
+		short[] boxes = state.getBoxes();
+		for (int i = 0; i < boxes.length; i++) {
+			out[offset++] = (byte) (boxes[i] >> 8);
+			out[offset++] = (byte) boxes[i];
+		}
+		out[offset++] = (byte) (state.getPlayer() >> 8);
+		out[offset] = (byte) state.getPlayer();
+	}
+	
+	
+	// external-memory BFS: rebuilds a state (with no parent) from its packed form
+	private PuzzleState unpack(PuzzleState start, byte[] record) {
+		short[] boxes = new short[start.getBoxes().length];
+		for (int i = 0; i < boxes.length; i++) {
+			boxes[i] = (short) (((record[2 * i] & 0xff) << 8) | (record[2 * i + 1] & 0xff));
+		}
+		int player = ((record[2 * boxes.length] & 0xff) << 8) | (record[2 * boxes.length + 1] & 0xff);
+		PuzzleState state = new PuzzleState(start.getBoard(), boxes, player, BFS, MANHATTAN);
+		if (start.isPushLevel()) state = state.setPushLevel();
+		return start.isSymmetric() ? state.setSymmetric() : state;
+	}
+	
+	
+	// external-memory BFS: finds a parent for the goal in each earlier layer, then replays the
+	// chain from the start so that the moves can be read off the parent states
+	private PuzzleState rebuildPath(PuzzleState start, List<StateFile> layers, byte[] goal) throws IOException {
+		LinkedList<byte[]> chain = new LinkedList<byte[]>();
+		if (layers.size() > 1) chain.addFirst(goal);
+		byte[] packed = new byte[goal.length];
+		for (int d = layers.size() - 2; d > 0; d--) {
+			StateFile.Reader in = layers.get(d).openReader();
+			byte[] parent = null;
+			while (parent == null && in.next()) {
+				for (PuzzleState next : expand(unpack(start, in.record))) {
+					pack(next, packed, 0);
+					if (Arrays.equals(packed, chain.getFirst())) {
+						parent = in.record.clone();
+						break;
+					}
+				}
+			}
+			in.close();
+			chain.addFirst(parent);
+		}
+		PuzzleState current = start;
+		for (byte[] step : chain) {
+			for (PuzzleState next : expand(current)) {
+				pack(next, packed, 0);
+				if (Arrays.equals(packed, step)) {
+					current = next;
+					break;
+				}
+			}
+		}
+		return current;
+	}
+	
+	
 	/**
 	 * Performs a depth first search with a depth limit to avoid infinite loops.
 	 * @param start the puzzle start state
@@ -107,20 +608,26 @@ public class Solver {
 		board = start.toString();
 		searchType = "depth-first search (depth limit: " + limit + ")";
 		heuristic = "";
+		matcher = null;
+		patterns = null;
+		iterationReport = "";
+		detailReport = "";
 		
 		start = start.setSearchType(DFS);
+		if (pushLevel) start = start.setPushLevel();
+		if (symmetry) start = start.setSymmetric();
 		
-		runtime = System.currentTimeMillis();
-		nodesGenerated = 0;
-		nodesWithPrevStates = 0;
+		startSearch(start.getBoard());
 		LinkedList<PuzzleState> fringe = new LinkedList<PuzzleState>();
-		LinkedList<PuzzleState> explored = new LinkedList<PuzzleState>();
+		StateStore explored = new StateStore(start);
+		explored.add(start, 0, -1);
 		fringe.push(start);
-		while (!fringe.isEmpty()) {
+		while (!fringe.isEmpty() && !overBudget(fringe.size(), explored.size())) {
 			PuzzleState current = fringe.pop();
+			int index = explored.find(current);
 			if (current.isGoalState()) {
-				runtime = System.currentTimeMillis() - runtime;
-				sequence = current.getSequence();
+				stopClock();
+				sequence = rebuildPath(start, explored, index).getSequence();
 				nodesOnFringe = fringe.size();
 				nodesOnExplored = explored.size();
 				return;
@@ -128,25 +635,148 @@ public class Solver {
 			// push expansions to the fringe if the limit has not been reached
 			if (current.getNumMoves() < limit) {
 				foundExplored = false;
-				for (int i = PuzzleState.RIGHT; i >= PuzzleState.UP; i--) {
-					// add moves to the fringe if they are valid and do not point back to the previous state
-					if (current.canMove(i)) {
-						nodesGenerated++;
-						PuzzleState next = current.generateMove(i);
-						if (!explored.contains(next)) {
-							fringe.push(next);
-							explored.add(next);
-						}
-						else {
-							foundExplored = true;
-						}
+				// push in reverse so that the first move is expanded first
+				ArrayList<PuzzleState> children = expand(current);
+				for (int i = children.size() - 1; i >= 0; i--) {
+					nodesGenerated++;
+					PuzzleState next = children.get(i);
+					if (explored.add(next, next.getNumMoves(), index) >= 0) {
+						next.detach();
+						fringe.push(next);
+					}
+					else {
+						foundExplored = true;
 					}
 				}
+				peakFringe = Math.max(peakFringe, fringe.size());
 				if (foundExplored) nodesWithPrevStates++;
 			}
 		}
+		stopClock();
+		rebuildPartial(start, explored);
+		nodesOnFringe = fringe.size();
+		nodesOnExplored = explored.size();
 	}
-	
+
+
+	/**
+	 * Performs an iterative-deepening depth-first search: depth-first searches with a
+	 * depth limit that grows until a solution is found, so the first solution found
+	 * has the fewest moves (or pushes, at the push level), and the limit given is only
+	 * the most that will be tried. The search moves one WorkingBoard forward and back
+	 * instead of creating states, and only skips a state when it is already on the
+	 * current path, so it needs memory for the path alone. A state is also cut off
+	 * when its boxes off goals cannot all be pushed within the limit, and the next
+	 * limit is the smallest depth that was cut off that way.
+	 * @param start the puzzle start state
+	 * @param limit the largest depth limit to try
+	 */
+	public void iterativeDeepeningSearch(PuzzleState start, int limit) {
+
+		board = start.toString();
+		searchType = "iterative-deepening depth-first search (depth limit: at most " + limit + ")";
+		heuristic = "";
+		matcher = null;
+		patterns = null;
+		iterationReport = "";
+		detailReport = "";
+
+		startSearch(start.getBoard());
+		WorkingBoard work = new WorkingBoard(start, pushLevel, Math.max(0, limit));
+		// the hash of each state on the path, the next move to try from it, and whether one
+		// of its moves led back onto the path
+		long[] path = new long[Math.max(0, limit) + 1];
+		int[] next = new int[path.length];
+		boolean[] repeated = new boolean[path.length];
+		StringBuilder perIteration = new StringBuilder();
+		int bound = work.getBoxesOffGoals();
+		iteration = 0;
+		while (bound <= limit) {
+			iteration++;
+			nodesExpanded = 0;
+			nextBound = Integer.MAX_VALUE;
+			if (telemetry != null) telemetry.setBound(bound);
+			boolean found = deepen(work, bound, path, next, repeated);
+			if (perIteration.length() > 0) perIteration.append(", ");
+			perIteration.append(nodesExpanded);
+			iterationReport = perIteration.toString();
+			if (found || nextBound == Integer.MAX_VALUE || stopReason != null) {
+				break;
+			}
+			bound = nextBound;
+		}
+		stopClock();
+		nodesOnFringe = work.getDepth();
+		if (work.isGoalState()) {
+			sequence = start.replay(work.getMoves()).getSequence();
+		}
+	}
+
+
+	// one iteration of iterative deepening: searches the board to a depth limit with an explicit
+	// stack, and returns true with the board at a goal, or false with the board back at the start
+	private boolean deepen(WorkingBoard work, int bound, long[] path, int[] next, boolean[] repeated) {
+		path[0] = work.getHash();
+		next[0] = -1;
+		int depth = 0;
+		while (depth >= 0) {
+			if (next[depth] < 0) {
+				// first visit: stop at a goal, and cut off when the boxes off goals need too many pushes
+				if (work.isGoalState()) {
+					return true;
+				}
+				// the flag may still be set by an earlier state at this depth
+				repeated[depth] = false;
+				int least = depth + work.getBoxesOffGoals();
+				if (least > bound) {
+					nextBound = Math.min(nextBound, least);
+					next[depth] = work.getBranching();
+				}
+				else {
+					next[depth] = 0;
+					nodesExpanded++;
+					peakFringe = Math.max(peakFringe, depth + 1);
+				}
+			}
+			// only the path is held in memory, so its length is what counts against the budget
+			if (overBudget(depth + 1, 0)) {
+				break;
+			}
+			int move = next[depth];
+			while (move < work.getBranching() && !work.canMake(move)) {
+				if (work.isDeadPush(move)) nodesPruned++;
+				move++;
+			}
+			if (move == work.getBranching()) {
+				// every move tried: back up to the parent
+				if (repeated[depth]) nodesWithPrevStates++;
+				if (depth > 0) work.undo();
+				depth--;
+				continue;
+			}
+			next[depth] = move + 1;
+			work.make(move);
+			nodesGenerated++;
+			long hash = work.getHash();
+			boolean cycle = false;
+			for (int i = depth; i >= 0 && !cycle; i--) {
+				cycle = path[i] == hash;
+			}
+			if (cycle) {
+				repeated[depth] = true;
+				work.undo();
+				continue;
+			}
+			depth++;
+			path[depth] = hash;
+			next[depth] = -1;
+		}
+		while (work.getDepth() > 0) {
+			work.undo();
+		}
+		return false;
+	}
+
 	/**
 	 * Performs a uniform cost search with normal moves having cost 1 and box pushes having cost 2.
 	 * @param start the puzzle start state
@@ -154,7 +784,11 @@ public class Solver {
 	public void uniformCostSearch(PuzzleState start) {
 		searchType = "uniform cost search";
 		heuristic = "";
-		priorityQueueSearch(start.setSearchType(UCS));
+		matcher = null;
+		patterns = null;
+		iterationReport = "";
+		detailReport = "";
+		priorityQueueSearch(start.setSearchType(UCS), 1);
 	}
 	
 	/**
@@ -164,58 +798,913 @@ public class Solver {
 	 */
 	public void greedyBestFirstSearch(PuzzleState start, int heur) {
 		searchType = "greedy best first search";
-		heuristic = heur == MANHATTAN ? "total Manhattan distance" : "total straight line distance";
-		priorityQueueSearch(start.setSearchType(GBFS).setSearchHeuristic(heur));
+		heuristic = describeHeuristic(heur);
+		prepareHeuristic(start, heur);
+		iterationReport = "";
+		detailReport = "";
+		priorityQueueSearch(start.setSearchType(GBFS).setSearchHeuristic(heur), 1);
 	}
 	
 	/**
-	 * Performs an A* search with the given heuristic function.
+	 * Performs an A* search with the given heuristic function. A state reached again by
+	 * a shorter path is searched again, so with a heuristic that never overestimates
+	 * (MATCHING or PATTERN_DATABASE) the solution found is a shortest one.
 	 * @param start the puzzle start state
 	 * @param heur the type of heuristic function
 	 */
 	public void aStarSearch(PuzzleState start, int heur) {
 		searchType = "A* search";
-		heuristic = heur == MANHATTAN ? "total Manhattan distance" : "total straight line distance";
-		priorityQueueSearch(start.setSearchType(A_STAR).setSearchHeuristic(heur));
+		heuristic = describeHeuristic(heur);
+		prepareHeuristic(start, heur);
+		iterationReport = "";
+		detailReport = "";
+		priorityQueueSearch(start.setSearchType(A_STAR).setSearchHeuristic(heur), 1);
+	}
+	
+	/**
+	 * Performs a weighted A* search: A* ordered by g + w * h, which trusts the heuristic
+	 * more and reaches a solution after far fewer expansions. The solution costs at most
+	 * w times the cheapest when the heuristic never overestimates.
+	 * @param start the puzzle start state
+	 * @param heur the type of heuristic function
+	 * @param weight the weight w of the heuristic, at least 1 (1 is plain A*)
+	 */
+	public void weightedAStarSearch(PuzzleState start, int heur, double weight) {
+		weight = Math.max(1, weight);
+		searchType = "weighted A* search (w = " + weight + ")";
+		heuristic = describeHeuristic(heur);
+		prepareHeuristic(start, heur);
+		iterationReport = "";
+		detailReport = "";
+		priorityQueueSearch(start.setSearchType(A_STAR).setSearchHeuristic(heur), weight);
+	}
+	
+	
+	/**
+	 * Performs an anytime repairing A* (ARA*) search. It starts as weighted A* with a
+	 * large weight, which finds a solution quickly, then lowers the weight step by step
+	 * and searches again, keeping what it has already found: the cheapest path to every
+	 * state reached, and the states whose path got cheaper after they were expanded,
+	 * which are the only ones a new search has to revisit. Each cheaper solution goes to
+	 * the solution listener with a bound on how far it can be from the cheapest; the
+	 * search ends when the bound reaches 1 (the solution is optimal) or a budget runs
+	 * out, and the last solution is the result. The bound, and the pruning of states that
+	 * cannot beat the last solution, only hold for a heuristic that never overestimates
+	 * (MATCHING or PATTERN_DATABASE); with the others nothing is pruned, the bound is
+	 * infinite, and the search ends after the search with weight 1.
+	 * @param start the puzzle start state
+	 * @param heur the type of heuristic function
+	 * @param weight the weight of the heuristic in the first search, at least 1
+	 */
+	public void anytimeAStarSearch(PuzzleState start, int heur, double weight) {
+		searchType = "anytime repairing A* search";
+		heuristic = describeHeuristic(heur);
+		prepareHeuristic(start, heur);
+		iterationReport = "";
+		detailReport = "";
+		start = start.setSearchType(A_STAR).setSearchHeuristic(heur);
+		board = start.toString();
+		if (pushLevel) start = start.setPushLevel();
+		if (symmetry) start = start.setSymmetric();
+		estimateStart(start);
+		
+		startSearch(start.getBoard());
+		// the cheapest cost of every state reached, the states expanded under the current weight,
+		// and the states that got cheaper after they were expanded, held back for the next weight;
+		// a copy of a state whose cost is not the cheapest has been replaced by a cheaper one (the
+		// states keep their parents here, since a published solution must keep its path)
+		StateStore reached = new StateStore(start), closed = new StateStore(start), seen = new StateStore(start);
+		List<PuzzleState> inconsistent = new ArrayList<PuzzleState>();
+		BucketQueue fringe = new BucketQueue();
+		double w = Math.max(1, weight);
+		boolean admissible = heur == MATCHING || heur == PATTERN_DATABASE;
+		reached.add(start, 0, -1);
+		fringe.add(start, weighted(start, w));
+		PuzzleState goal = start.isGoalState() ? start : null, published = null;
+		StringBuilder solutions = new StringBuilder();
+		double bound = Double.POSITIVE_INFINITY;
+		int searches = 0;
+		while (true) {
+			searches++;
+			// expand until no state left on the fringe can lead to a cheaper goal under this weight
+			while (!fringe.isEmpty() && !overBudget(fringe.size(), reached.size())) {
+				PuzzleState current = fringe.remove();
+				// a copy replaced by a cheaper one, or already expanded under this weight
+				if (reached.getCost(reached.find(current)) != current.getNumMoves() || closed.find(current) >= 0) continue;
+				if (goal != null && goal.getNumMoves() <= weighted(current, w)) {
+					fringe.add(current, weighted(current, w));
+					break;
+				}
+				closed.add(current, current.getNumMoves(), -1);
+				foundExplored = false;
+				for (PuzzleState next : expand(current)) {
+					nodesGenerated++;
+					// with an estimate that never overestimates, nothing here can beat the solution
+					if (admissible && goal != null && next.getNumMoves() + next.getEstimate() >= goal.getNumMoves()) {
+						continue;
+					}
+					int known = reached.add(next, next.getNumMoves(), -1);
+					if (known < 0 && reached.getCost(-known - 1) <= next.getNumMoves()) {
+						foundExplored = true;
+						continue;
+					}
+					if (known < 0) reached.update(-known - 1, next.getNumMoves(), -1);
+					if (next.isGoalState()) goal = next;
+					else if (closed.find(next) >= 0) inconsistent.add(next);
+					else fringe.add(next, weighted(next, w));
+				}
+				peakFringe = Math.max(peakFringe, fringe.size());
+				if (foundExplored) nodesWithPrevStates++;
+			}
+			if (goal == null) break;
+			
+			// what is left to search, and the cheapest g + h in it, which no solution can beat
+			// (if the estimate never overestimates; otherwise nothing is dropped and there is no bound)
+			List<PuzzleState> open = new ArrayList<PuzzleState>();
+			seen.clear();
+			int lowest = goal.getNumMoves();
+			for (PuzzleState state = fringe.remove(); state != null || !inconsistent.isEmpty(); state = fringe.remove()) {
+				if (state == null) {
+					state = inconsistent.remove(inconsistent.size() - 1);
+				}
+				if (reached.getCost(reached.find(state)) != state.getNumMoves()
+						|| admissible && state.getNumMoves() + state.getEstimate() >= goal.getNumMoves()
+						|| seen.add(state, 0, -1) < 0) {
+					continue;
+				}
+				open.add(state);
+				lowest = Math.min(lowest, state.getNumMoves() + state.getEstimate());
+			}
+			bound = admissible ? Math.min(w, goal.getNumMoves() / (double) Math.max(1, lowest)) : Double.POSITIVE_INFINITY;
+			if (goal != published) {
+				published = goal;
+				sequence = goal.getSequence();
+				solutions.append(solutions.length() > 0 ? ", " : "").append(goal.getNumMoves())
+						.append(" (w = ").append(w).append(", bound ").append(describeBound(bound)).append(")");
+				if (listener != null) listener.improved(getSolution(), goal.getNumMoves(), bound);
+			}
+			if (bound <= 1 || w == 1 || stopReason != null) break;
+			
+			// search again under a smaller weight, from every state not yet settled
+			w = Math.max(1, w - WEIGHT_STEP);
+			closed.clear();
+			for (PuzzleState state : open) {
+				fringe.add(state, weighted(state, w));
+			}
+		}
+		stopClock();
+		nodesOnFringe = fringe.size() + inconsistent.size();
+		nodesOnExplored = reached.size();
+		detailReport = "\nSearches: " + searches + ", last weight " + w
+				+ "\nSolutions (cost, weight and bound): " + (solutions.length() > 0 ? solutions : "none")
+				+ (goal != null ? "\nSuboptimality bound: " + describeBound(bound)
+						+ (admissible ? "" : " (the heuristic may overestimate)") : "");
+	}
+	
+	
+	// a suboptimality bound of ARA*, for the report; infinite when the heuristic may overestimate
+	private static String describeBound(double bound) {
+		return Double.isInfinite(bound) ? "none" : String.format("%.3f", bound);
 	}
 	
 	
-	// UCS, GBFS, and A* are all based on a priority queue
-	private void priorityQueueSearch(PuzzleState start) {
+	/**
+	 * Performs an iterative-deepening A* search with the given heuristic function.
+	 * Each iteration is a depth-first search that cuts off states whose evaluation
+	 * exceeds a bound, and the next iteration raises the bound to the smallest
+	 * evaluation that was cut off. Only the current path is kept in memory, plus a
+	 * fixed-size transposition table that skips states already searched in the
+	 * same iteration.
+	 * @param start the puzzle start state
+	 * @param heur the type of heuristic function
+	 */
+	public void idaStarSearch(PuzzleState start, int heur) {
+		searchType = "IDA* search";
+		heuristic = describeHeuristic(heur);
+		prepareHeuristic(start, heur);
+		detailReport = "";
+		start = start.setSearchType(A_STAR).setSearchHeuristic(heur);
 		board = start.toString();
+		if (pushLevel) start = start.setPushLevel();
+		if (symmetry) start = start.setSymmetric();
+		estimateStart(start);
 		
+		startSearch(start.getBoard());
+		TranspositionTable table = new TranspositionTable(TABLE_BITS);
+		StringBuilder perIteration = new StringBuilder();
+		int bound = start.evaluate(A_STAR);
+		iteration = 0;
+		while (true) {
+			iteration++;
+			nodesExpanded = 0;
+			nextBound = Integer.MAX_VALUE;
+			if (telemetry != null) telemetry.setBound(bound);
+			table.probe(start.getKey(), 0, iteration);
+			PuzzleState goal = boundedSearch(start, bound, table);
+			if (perIteration.length() > 0) perIteration.append(", ");
+			perIteration.append(nodesExpanded);
+			iterationReport = perIteration.toString();
+			if (goal != null || nextBound == Integer.MAX_VALUE || stopReason != null) {
+				stopClock();
+				if (goal != null) {
+					sequence = goal.getSequence();
+					nodesOnFringe = goal.getNumMoves();
+				}
+				nodesOnExplored = table.size();
+				return;
+			}
+			bound = nextBound;
+		}
+	}
+	
+	
+	// one IDA* iteration below a state: returns a goal state, or null if none is within the bound
+	private PuzzleState boundedSearch(PuzzleState current, int bound, TranspositionTable table) {
+		// only the path is held in memory, so its length is what counts against the budget
+		if (overBudget(current.getNumMoves(), 0)) {
+			return null;
+		}
+		int f = current.evaluate(A_STAR);
+		if (f > bound) {
+			nextBound = Math.min(nextBound, f);
+			return null;
+		}
+		if (current.isGoalState()) {
+			return current;
+		}
+		nodesExpanded++;
+		peakFringe = Math.max(peakFringe, current.getNumMoves() + 1);
+		ArrayList<PuzzleState> children = expand(current);
+		// try the most promising child first
+		Collections.sort(children);
+		boolean previous = false;
+		for (PuzzleState next : children) {
+			nodesGenerated++;
+			if (table.probe(next.getKey(), next.getNumMoves(), iteration)) {
+				previous = true;
+				continue;
+			}
+			PuzzleState goal = boundedSearch(next, bound, table);
+			if (goal != null) {
+				return goal;
+			}
+		}
+		if (previous) nodesWithPrevStates++;
+		return null;
+	}
+	
+	
+	/**
+	 * Performs a bidirectional breadth-first search at the push level: a forward search
+	 * pushes boxes from the start state, and a reverse search pulls boxes away from the
+	 * goal states (one per set of goals the boxes could fill and region the player could
+	 * end up in). Each round expands a whole layer of the smaller side, and the search
+	 * stops after the first layer that reaches a state the other side has seen, so the
+	 * solution has the fewest pushes. The forward path and the pulls of the reverse path
+	 * are joined into one move sequence.
+	 * @param start the puzzle start state
+	 */
+	public void bidirectionalSearch(PuzzleState start) {
+		searchType = "bidirectional search";
+		heuristic = "";
+		matcher = null;
+		patterns = null;
+		iterationReport = "";
+		start = start.setSearchType(BFS);
+		board = start.toString();
+		start = start.setPushLevel();
+		if (symmetry) start = start.setSymmetric();
+		
+		startSearch(start.getBoard());
+		// the states each side has seen, looked up by the other side to find a meeting point
+		HashMap<PuzzleState, PuzzleState> forward = new HashMap<PuzzleState, PuzzleState>();
+		HashMap<PuzzleState, PuzzleState> backward = new HashMap<PuzzleState, PuzzleState>();
+		List<PuzzleState> forwardLayer = new ArrayList<PuzzleState>();
+		List<PuzzleState> backwardLayer = start.generateGoalStates();
+		boolean reverse = !backwardLayer.isEmpty();
+		forward.put(start, start);
+		forwardLayer.add(start);
+		for (PuzzleState goal : backwardLayer) {
+			backward.put(goal, goal);
+		}
+		PuzzleState meetForward = null, meetBackward = null;
+		if (start.isGoalState()) {
+			meetForward = start;
+		}
+		int forwardLayers = 0, backwardLayers = 0, best = Integer.MAX_VALUE;
+		// with goal states to pull from, an exhausted reverse side means there is no solution
+		while (meetForward == null && !forwardLayer.isEmpty() && (!reverse || !backwardLayer.isEmpty())
+				&& stopReason == null) {
+			List<PuzzleState> next = new ArrayList<PuzzleState>();
+			if (backwardLayer.isEmpty() || forwardLayer.size() <= backwardLayer.size()) {
+				forwardLayers++;
+				for (PuzzleState current : forwardLayer) {
+					if (overBudget(next.size(), forward.size() + backward.size())) break;
+					foundExplored = false;
+					for (PuzzleState child : expand(current)) {
+						nodesGenerated++;
+						if (forward.containsKey(child)) {
+							foundExplored = true;
+							continue;
+						}
+						forward.put(child, child);
+						next.add(child);
+						PuzzleState other = backward.get(child);
+						if (other == null && !child.isGoalState()) continue;
+						int pushes = child.getNumMoves() + (other == null ? 0 : other.getNumMoves());
+						if (pushes < best) {
+							best = pushes;
+							meetForward = child;
+							meetBackward = other;
+						}
+					}
+					if (foundExplored) nodesWithPrevStates++;
+				}
+				forwardLayer = next;
+			}
+			else {
+				backwardLayers++;
+				List<PuzzleState> children = new ArrayList<PuzzleState>();
+				for (PuzzleState current : backwardLayer) {
+					if (overBudget(next.size(), forward.size() + backward.size())) break;
+					foundExplored = false;
+					children.clear();
+					long begin = telemetry == null ? 0 : System.nanoTime();
+					current.generatePulls(children);
+					if (telemetry != null) recordExpansion(begin, current);
+					for (PuzzleState child : children) {
+						nodesGenerated++;
+						if (backward.containsKey(child)) {
+							foundExplored = true;
+							continue;
+						}
+						backward.put(child, child);
+						next.add(child);
+						PuzzleState other = forward.get(child);
+						if (other == null) continue;
+						int pushes = child.getNumMoves() + other.getNumMoves();
+						if (pushes < best) {
+							best = pushes;
+							meetForward = other;
+							meetBackward = child;
+						}
+					}
+					if (foundExplored) nodesWithPrevStates++;
+				}
+				backwardLayer = next;
+			}
+			peakFringe = Math.max(peakFringe, forwardLayer.size() + backwardLayer.size());
+		}
+		stopClock();
+		if (meetForward != null) {
+			// a state met up to symmetry is turned so that the pulls carry on from the pushes
+			if (meetBackward != null) meetBackward = meetBackward.mapOnto(meetForward);
+			sequence = meetForward.getSequence(meetBackward);
+		}
+		nodesOnFringe = forwardLayer.size() + backwardLayer.size();
+		nodesOnExplored = forward.size() + backward.size();
+		detailReport = "\nForward search: " + forwardLayers + " layers, " + forward.size() + " states, "
+				+ forwardLayer.size() + " on the fringe"
+				+ "\nReverse search: " + backwardLayers + " layers, " + backward.size() + " states, "
+				+ backwardLayer.size() + " on the fringe"
+				+ (reverse ? "" : " (the level has more goals than boxes, so there is no reverse search)");
+	}
+	
+	
+	/**
+	 * Performs a hash-distributed A* search on several threads. Each worker owns the
+	 * states whose hash maps to it and keeps its own fringe and explored list; the
+	 * children of an expanded state are sent to their owners through lock-free queues.
+	 * Workers keep going after the first solution is found, pruning states that cannot
+	 * beat it, and stop only when every worker is idle with no message in flight, so the
+	 * solution is as cheap as a serial A* search would find.
+	 * @param start the puzzle start state
+	 * @param heur the type of heuristic function
+	 * @param threads the number of worker threads
+	 */
+	@SuppressWarnings("unchecked")
+	public void hashDistributedAStarSearch(PuzzleState start, int heur, int threads) throws InterruptedException {
+		searchType = "hash-distributed A* search (" + threads + " threads)";
+		heuristic = describeHeuristic(heur);
+		prepareHeuristic(start, heur);
+		iterationReport = "";
+		start = start.setSearchType(A_STAR).setSearchHeuristic(heur);
+		board = start.toString();
+		if (pushLevel) start = start.setPushLevel();
+		if (symmetry) start = start.setSymmetric();
+		estimateStart(start);
+		
+		startSearch(start.getBoard());
+		inboxes = new ArrayList<ConcurrentLinkedQueue<PuzzleState>>(threads);
+		Worker[] workers = new Worker[threads];
+		Thread[] running = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			inboxes.add(new ConcurrentLinkedQueue<PuzzleState>());
+			workers[i] = new Worker(i, start, heur);
+		}
+		bestCost = Integer.MAX_VALUE;
+		bestGoal = null;
+		halted = false;
+		// the start state is the first message in flight
+		outstanding = new AtomicLong(1);
+		inboxes.get(owner(start)).add(start);
+		for (int i = 0; i < threads; i++) {
+			running[i] = new Thread(workers[i], "hda-worker-" + (i + 1));
+			running[i].start();
+		}
+		// the workers are watched from here: they are sampled for the telemetry and the budgets,
+		// and told to stop when a budget runs out
+		for (int i = 0; i < threads; i++) {
+			while (running[i].isAlive()) {
+				running[i].join(50);
+				sampleWorkers(workers);
+			}
+		}
+		sampleWorkers(workers);
+		stopClock();
+		
+		// combine the statistics of the workers
+		sequence = bestGoal == null ? null : bestGoal.getSequence();
+		nodesGenerated = 0;
+		nodesWithPrevStates = 0;
+		nodesOnFringe = 0;
+		nodesOnExplored = 0;
+		nodesPruned = 0;
+		nodesDeadlocked = 0;
+		detector = new DeadlockDetector(start.getBoard());
+		StringBuilder perWorker = new StringBuilder();
+		for (Worker w : workers) {
+			Solver local = w.local;
+			if (local.bestPartial != null && (bestPartial == null || local.bestEstimate < bestEstimate)) {
+				bestPartial = local.bestPartial;
+				bestEstimate = local.bestEstimate;
+			}
+			nodesGenerated += local.nodesGenerated;
+			nodesWithPrevStates += local.nodesWithPrevStates;
+			nodesOnFringe += w.fringe.size();
+			nodesOnExplored += w.explored.size();
+			peakFringe += w.peakFringe;
+			nodesPruned += local.nodesPruned;
+			nodesDeadlocked += local.nodesDeadlocked;
+			detector.addCounts(local.detector);
+			perWorker.append("\nWorker " + (w.id + 1) + ": " + local.nodesExpanded + " expanded, "
+					+ local.nodesGenerated + " generated, " + w.sent + " sent, " + w.received + " received, "
+					+ local.nodesWithPrevStates + " duplicates, " + w.explored.size() + " explored, "
+					+ w.peakFringe + " peak fringe");
+		}
+		detailReport = perWorker.toString();
+		inboxes = null;
+	}
+	
+	
+	// hash-distributed A*: checks the sums of the workers' counters against the budgets and hands
+	// them to the telemetry; they are read while the workers run, so they are only approximate
+	// until the workers finish
+	private void sampleWorkers(Worker[] workers) {
+		long expanded = 0, generated = 0, duplicates = 0, fringe = 0, explored = 0;
+		for (Worker w : workers) {
+			expanded += w.local.nodesExpanded;
+			generated += w.local.nodesGenerated;
+			duplicates += w.local.nodesWithPrevStates;
+			fringe += w.fringe.size();
+			explored += w.explored.size();
+		}
+		nodesGenerated = generated;
+		if (!halted && checkBudget(fringe, explored, true)) halted = true;
+		if (telemetry != null) telemetry.counts(expanded, generated, duplicates, fringe, explored);
+	}
+	
+	
+	// the worker that owns a state in hash-distributed A*
+	private int owner(PuzzleState state) {
+		return (int) ((state.getKey() >>> 1) % inboxes.size());
+	}
+	
+	
+	// hash-distributed A*: records a solution if it beats the best one so far
+	private synchronized void offerGoal(PuzzleState goal) {
+		if (goal.getNumMoves() < bestCost) {
+			bestGoal = goal;
+			bestCost = goal.getNumMoves();
+		}
+	}
+	
+	
+	// one thread of hash-distributed A*; it expands with its own solver so that the
+	// deadlock detector, matching heuristic and counters are never shared
+	private class Worker implements Runnable {
+		
+		private final int id;
+		private final Solver local;
+		private final BucketQueue fringe = new BucketQueue();
+		// the fewest moves (or pushes) each owned state has been reached with; the states
+		// keep their parents, since their paths run through other workers' stores
+		private final StateStore explored;
+		private long sent, received;
+		private int peakFringe;
+		
+		private Worker(int id, PuzzleState start, int heur) {
+			Board level = start.getBoard();
+			this.id = id;
+			explored = new StateStore(start);
+			local = new Solver(false);
+			local.pushLevel = pushLevel;
+			local.symmetry = symmetry;
+			local.macros = macros;
+			local.heuristic = heuristic;
+			local.bestEstimate = Integer.MAX_VALUE;
+			local.matcher = matcher == null ? null : new MatchingHeuristic(level);
+			local.patterns = patterns == null ? null : patterns.share();
+			local.detector = new DeadlockDetector(level);
+		}
+		
+		public void run() {
+			ConcurrentLinkedQueue<PuzzleState> inbox = inboxes.get(id);
+			boolean busy = false;
+			while (!halted) {
+				PuzzleState message = inbox.poll();
+				if (message != null) {
+					// count this worker as busy before the message stops counting
+					if (!busy) {
+						outstanding.incrementAndGet();
+						busy = true;
+					}
+					received++;
+					receive(message);
+					outstanding.decrementAndGet();
+					continue;
+				}
+				if (busy) {
+					PuzzleState current = next();
+					if (current != null) {
+						process(current);
+						continue;
+					}
+					busy = false;
+					outstanding.decrementAndGet();
+				}
+				// nothing is busy and nothing is in flight, so nothing can ever be sent again
+				else if (outstanding.get() == 0) {
+					return;
+				}
+				else {
+					Thread.yield();
+				}
+			}
+		}
+		
+		// adds a state to the fringe unless it was already reached as cheaply
+		private void receive(PuzzleState state) {
+			int index = explored.add(state, state.getNumMoves(), -1);
+			if (index < 0 && explored.getCost(-index - 1) <= state.getNumMoves()) {
+				local.nodesWithPrevStates++;
+				return;
+			}
+			if (index < 0) explored.update(-index - 1, state.getNumMoves(), -1);
+			fringe.add(state);
+			peakFringe = Math.max(peakFringe, fringe.size());
+		}
+		
+		// the best fringe state worth expanding, or null if there is none
+		private PuzzleState next() {
+			while (!fringe.isEmpty()) {
+				PuzzleState current = fringe.remove();
+				if (current.evaluate(A_STAR) >= bestCost) {
+					// the fringe is ordered, so nothing left in it can beat the solution
+					fringe.clear();
+					return null;
+				}
+				// skip states that were reached more cheaply after being queued
+				if (explored.getCost(explored.find(current)) == current.getNumMoves()) {
+					return current;
+				}
+			}
+			return null;
+		}
+		
+		// expands a state and sends its children to their owners
+		private void process(PuzzleState current) {
+			if (current.isGoalState()) {
+				offerGoal(current);
+				return;
+			}
+			local.nodesExpanded++;
+			for (PuzzleState next : local.expand(current)) {
+				local.nodesGenerated++;
+				if (next.evaluate(A_STAR) >= bestCost) continue;
+				int to = owner(next);
+				if (to == id) {
+					receive(next);
+				}
+				else {
+					outstanding.incrementAndGet();
+					sent++;
+					inboxes.get(to).add(next);
+				}
+			}
+		}
+	}
+	
+	
+	// starts the clock and clears the statistics and result of the last search
+	private void startSearch(Board level) {
 		runtime = System.currentTimeMillis();
+		deadline = timeBudget > 0 ? runtime + timeBudget : 0;
+		budgetChecks = 0;
+		stopReason = null;
+		sequence = null;
+		bestPartial = null;
+		bestEstimate = Integer.MAX_VALUE;
 		nodesGenerated = 0;
 		nodesWithPrevStates = 0;
-		PriorityQueue<PuzzleState> fringe = new PriorityQueue<PuzzleState>();
-		LinkedList<PuzzleState> explored = new LinkedList<PuzzleState>();
-		fringe.add(start);
-		while (!fringe.isEmpty()) {
+		nodesOnFringe = 0;
+		nodesOnExplored = 0;
+		nodesPruned = 0;
+		nodesDeadlocked = 0;
+		peakFringe = 0;
+		detector = new DeadlockDetector(level);
+		symmetries = level.getSymmetryCount() == 0 ? "none" : level.getSymmetryName(0);
+		for (int i = 1; i < level.getSymmetryCount(); i++) {
+			symmetries += ", " + level.getSymmetryName(i);
+		}
+		int tunnels = 0;
+		for (int cell = 0; cell < level.getSize(); cell++) {
+			boolean tunnel = false;
+			for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+				tunnel |= level.isTunnel(cell, d);
+			}
+			if (tunnel) tunnels++;
+		}
+		macroReport = tunnels + " tunnel squares, "
+				+ (level.getGoalRoomEntrance() < 0 ? "no goal room" : "a goal room of "
+						+ level.getGoalRoomSlots().length + " goals entered at row " + level.row(level.getGoalRoomEntrance())
+						+ ", column " + level.col(level.getGoalRoomEntrance()));
+		if (telemetry != null) telemetry.begin(searchType + (pushLevel ? " (push level)" : ""));
+	}
+	
+	
+	// stops the clock at the end of a search, turning the start time into the runtime
+	private void stopClock() {
+		runtime = System.currentTimeMillis() - runtime;
+		if (telemetry != null) telemetry.end();
+	}
+	
+	
+	// hands one expansion, started at the given nanoTime, to the telemetry
+	private void recordExpansion(long begin, PuzzleState current) {
+		telemetry.expanded(System.nanoTime() - begin, current.getNumMoves(),
+				heuristic.length() > 0 ? current.evaluate(A_STAR) : -1);
+	}
+	
+	
+	// whether the search has to stop because it ran out of time, nodes or memory, or was cancelled;
+	// the clock is only read every 128 calls. Searches call this once per expansion, so it
+	// also hands the list sizes to the telemetry
+	private boolean overBudget(long fringe, long explored) {
+		if (telemetry != null) {
+			telemetry.sizes(nodesGenerated, nodesWithPrevStates, fringe, explored);
+		}
+		return checkBudget(fringe, explored, (++budgetChecks & 127) == 0);
+	}
+	
+	
+	// sets the reason to stop if a budget has run out or the token was cancelled; the clock
+	// is only read when asked
+	private boolean checkBudget(long fringe, long explored, boolean clock) {
+		statesHeld = fringe + explored;
+		if (stopReason != null) {
+			return true;
+		}
+		if (cancellation != null && cancellation.isCancelled()) {
+			stopReason = "cancelled";
+		}
+		else if (stateBudget > 0 && fringe + explored > stateBudget) {
+			stopReason = "memory budget";
+		}
+		else if (nodeBudget > 0 && nodesGenerated >= nodeBudget) {
+			stopReason = "node budget";
+		}
+		else if (clock && deadline > 0 && System.currentTimeMillis() > deadline) {
+			stopReason = "time budget";
+		}
+		return stopReason != null;
+	}
+	
+	
+	// builds the heuristic objects a search needs: the matching for MATCHING, and both
+	// the matching and the pattern database for PATTERN_DATABASE
+	private void prepareHeuristic(PuzzleState start, int heur) {
+		matcher = heur == MATCHING || heur == PATTERN_DATABASE ? new MatchingHeuristic(start.getBoard()) : null;
+		patterns = null;
+		if (heur == PATTERN_DATABASE) {
+			File file = levelFile == null ? null : new File(levelFile.replaceFirst("(\\.txt)?$", ".pdb"));
+			try {
+				patterns = new PatternDatabase(start, file);
+			} catch (IllegalArgumentException e) {
+				// the table would not fit in memory, so the matching heuristic is used alone
+				heuristic = describeHeuristic(MATCHING) + " (level too large for a pattern database)";
+			}
+		}
+	}
+	
+	
+	// sets the estimate of a start state when it comes from a heuristic object
+	private void estimateStart(PuzzleState start) {
+		if (matcher != null) start.setEstimate(matcher.estimate(start));
+		if (patterns != null) start.setEstimate(Math.max(start.getEstimate(), patterns.estimate(start)));
+	}
+	
+	
+	// the name of a heuristic function, for the report
+	private String describeHeuristic(int heur) {
+		if (heur == MANHATTAN) return "total Manhattan distance";
+		if (heur == MATCHING) return "minimum push distance matching";
+		if (heur == PATTERN_DATABASE) return "box pair pattern database";
+		return "total straight line distance";
+	}
+	
+	
+	// the evaluation weighted A* orders a state by, g + w * h; a weight of 1 leaves the state's own
+	private static int weighted(PuzzleState state, double weight) {
+		return weight == 1 ? state.getPriority() : state.getNumMoves() + (int) (weight * state.getEstimate());
+	}
+	
+	
+	// the cost of the path to a state that a priority queue search keeps lowest: moves and pushes for
+	// UCS and moves for A*; GBFS keeps none lowest, so it never searches a state again
+	private static int pathCost(PuzzleState state) {
+		if (state.getSearchType() == GBFS) return 0;
+		return state.getSearchType() == UCS ? state.evaluate(UCS) : state.getNumMoves();
+	}
+	
+	
+	// UCS, GBFS, and A* (weighted or not) are all based on a priority queue
+	private void priorityQueueSearch(PuzzleState start, double weight) {
+		board = start.toString();
+		if (pushLevel) start = start.setPushLevel();
+		if (symmetry) start = start.setSymmetric();
+		estimateStart(start);
+		
+		startSearch(start.getBoard());
+		// f and h are small integers, so the fringe is a bucket queue rather than a heap
+		BucketQueue fringe = new BucketQueue();
+		StateStore explored = new StateStore(start);
+		explored.add(start, pathCost(start), -1);
+		fringe.add(start, weighted(start, weight));
+		while (!fringe.isEmpty() && !overBudget(fringe.size(), explored.size())) {
 			PuzzleState current = fringe.remove();
+			int index = explored.find(current);
+			// skip states that were reached more cheaply after being queued
+			if (explored.getCost(index) != pathCost(current)) continue;
 			if (current.isGoalState()) {
-				runtime = System.currentTimeMillis() - runtime;
-				sequence = current.getSequence();
+				stopClock();
+				sequence = rebuildPath(start, explored, index).getSequence();
 				nodesOnFringe = fringe.size();
 				nodesOnExplored = explored.size();
 				return;
 			}
 			foundExplored = false;
+			// add moves to the fringe unless they point back to a state already reached as cheaply;
+			// one reached again by a cheaper path is searched again, so that A* stays optimal
+			for (PuzzleState next : expand(current)) {
+				nodesGenerated++;
+				int cost = pathCost(next), known = explored.add(next, cost, index);
+				if (known < 0 && explored.getCost(-known - 1) <= cost) {
+					foundExplored = true;
+					continue;
+				}
+				if (known < 0) explored.update(-known - 1, cost, index);
+				next.detach();
+				fringe.add(next, weighted(next, weight));
+			}
+			peakFringe = Math.max(peakFringe, fringe.size());
+			if (foundExplored) nodesWithPrevStates++;
+		}
+		stopClock();
+		rebuildPartial(start, explored);
+		nodesOnFringe = fringe.size();
+		nodesOnExplored = explored.size();
+	}
+	
+	
+	// follows the parent numbers of a state store back from a state, then replays the chain from the
+	// start so that the moves can be read off the parent states; the counters of the search, its
+	// best partial state and the telemetry are left as they were
+	private PuzzleState rebuildPath(PuzzleState start, StateStore store, int index) {
+		PuzzleState partial = bestPartial;
+		int estimate = bestEstimate;
+		long pruned = nodesPruned, deadlocked = nodesDeadlocked;
+		// the replay expands states again; keep that out of the telemetry
+		SearchTelemetry watching = telemetry;
+		telemetry = null;
+		LinkedList<Integer> chain = new LinkedList<Integer>();
+		for (int i = index; store.getParent(i) >= 0; i = store.getParent(i)) {
+			chain.addFirst(i);
+		}
+		PuzzleState current = start;
+		for (int step : chain) {
+			for (PuzzleState next : expand(current)) {
+				if (store.find(next) == step) {
+					current = next;
+					break;
+				}
+			}
+		}
+		telemetry = watching;
+		bestPartial = partial;
+		bestEstimate = estimate;
+		nodesPruned = pruned;
+		nodesDeadlocked = deadlocked;
+		return current;
+	}
+	
+	
+	// gives the best partial state back the moves that lead to it, when it was cut off from its path
+	private void rebuildPartial(PuzzleState start, StateStore store) {
+		if (bestPartial != null && bestPartial.getParent() == null && bestPartial.getNumMoves() > 0) {
+			bestPartial = rebuildPath(start, store, store.find(bestPartial));
+		}
+	}
+	
+	
+	// generates the children of a state: single player steps, or whole box pushes at the push level;
+	// deadlocked children are dropped here so they never reach the fringe
+	private ArrayList<PuzzleState> expand(PuzzleState current) {
+		long begin = telemetry == null ? 0 : System.nanoTime();
+		int left = partialEstimate(current);
+		if (left < bestEstimate) {
+			bestPartial = current;
+			bestEstimate = left;
+		}
+		ArrayList<PuzzleState> children = new ArrayList<PuzzleState>(4);
+		if (current.isPushLevel()) {
+			nodesPruned += current.generatePushes(children, detector, macros);
+		}
+		else {
 			for (int i = PuzzleState.UP; i <= PuzzleState.RIGHT; i++) {
-				// add moves to the fringe if they are valid and do not point back to the previous state
 				if (current.canMove(i)) {
-					nodesGenerated++;
-					PuzzleState next = current.generateMove(i);
-					if (!explored.contains(next)) {
-						fringe.add(next);
-						explored.add(next);
-					}
-					else {
-						foundExplored = true;
-					}
+					children.add(current.generateMove(i, detector));
+				}
+				else if (current.isDeadPush(i)) {
+					nodesPruned++;
 				}
 			}
-			if (foundExplored) nodesWithPrevStates++;
 		}
+		for (int i = children.size() - 1; i >= 0; i--) {
+			PuzzleState child = children.get(i);
+			// a child whose boxes cannot all be matched to goals is deadlocked as well
+			if (!child.isDeadlocked() && matcher != null) {
+				int estimate = matcher.estimate(current, child);
+				if (estimate == MatchingHeuristic.INFEASIBLE) child.markDeadlocked();
+				else child.setEstimate(estimate);
+			}
+			// so is a child with a pair of boxes that can never both reach goals
+			if (!child.isDeadlocked() && patterns != null) {
+				int estimate = patterns.estimate(child);
+				if (estimate == PatternDatabase.INFEASIBLE) child.markDeadlocked();
+				else if (estimate > child.getEstimate()) child.setEstimate(estimate);
+			}
+			if (child.isDeadlocked()) {
+				children.remove(i);
+				nodesDeadlocked++;
+			}
+		}
+		if (telemetry != null) recordExpansion(begin, current);
+		return children;
+	}
+	
+	
+	// how far a state is from the goal, for picking the best partial state: the estimate of the
+	// search's heuristic, or for a search without one, the push distance of each box to its nearest goal
+	private int partialEstimate(PuzzleState state) {
+		if (heuristic.length() > 0) {
+			return state.getEstimate();
+		}
+		Board level = state.getBoard();
+		int sum = 0;
+		for (short box : state.getBoxes()) {
+			int nearest = Board.UNREACHABLE;
+			for (int g = 0; g < level.getGoals().length; g++) {
+				nearest = Math.min(nearest, level.getPushDistance(g, box));
+			}
+			if (nearest == Board.UNREACHABLE) return Integer.MAX_VALUE;
+			sum += nearest;
+		}
+		return sum;
+	}
+	
+	
+	// percentage of deadlock checks that found a deadlock, for the report
+	private double hitRate() {
+		if (detector.getChecks() == 0) return 0;
+		return Math.round(1000.0 * detector.getHits() / detector.getChecks()) / 10.0;
+	}
+	
+	
+	// average time of one deadlock check in microseconds, for the report
+	private double averageCheckTime() {
+		if (detector.getChecks() == 0) return 0;
+		return Math.round(detector.getNanos() / (double) detector.getChecks()) / 1000.0;
 	}
 	
 }
@@ -0,0 +1,278 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A file of packed states for the external-memory search: fixed-size records,
+ * kept sorted (as unsigned bytes) and free of repeats, read and written in order
+ * through buffered channels. Sorted files let duplicates be found by merging two
+ * streams instead of holding a hash set in memory.
+ * @author Andrew Goldin
+ */
+public class StateFile {
+
+	// bytes buffered per open channel
+	private static final int BUFFER = 1 << 16;
+
+	private final File file;
+	private final int recordSize;
+
+
+	/**
+	 * Creates a handle for a state file. Nothing is written until a writer is opened.
+	 * @param file the file holding the records
+	 * @param recordSize the number of bytes in one packed state
+	 */
+	public StateFile(File file, int recordSize) {
+		this.file = file;
+		this.recordSize = recordSize;
+	}
+
+
+	/**
+	 * The number of states in the file.
+	 * @return the number of records
+	 */
+	public long size() {
+		return file.length() / recordSize;
+	}
+
+
+	/**
+	 * The number of bytes the file takes on disk.
+	 * @return the file size
+	 */
+	public long bytes() {
+		return file.length();
+	}
+
+
+	/**
+	 * Removes the file from disk.
+	 */
+	public void delete() {
+		file.delete();
+	}
+
+
+	/**
+	 * Opens the file for writing, replacing what it held.
+	 * @return a writer appending records in the order given
+	 */
+	public Writer openWriter() throws IOException {
+		return new Writer();
+	}
+
+
+	/**
+	 * Opens the file for reading from the start.
+	 * @return a reader returning records in file order
+	 */
+	public Reader openReader() throws IOException {
+		return new Reader();
+	}
+
+
+	/**
+	 * Sorts a block of packed states in memory and writes it without repeats.
+	 * @param data the packed states, one after another
+	 * @param count the number of states in the block
+	 */
+	public void writeRun(byte[] data, int count) throws IOException {
+		int[] order = new int[count], scratch = new int[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i * recordSize;
+		}
+		// bottom-up merge sort of record offsets
+		for (int width = 1; width < count; width *= 2) {
+			for (int lo = 0; lo < count - width; lo += 2 * width) {
+				int mid = lo + width, hi = Math.min(lo + 2 * width, count);
+				int i = lo, j = mid, k = lo;
+				while (i < mid && j < hi) {
+					scratch[k++] = compare(data, order[i], data, order[j], recordSize) <= 0 ? order[i++] : order[j++];
+				}
+				while (i < mid) scratch[k++] = order[i++];
+				while (j < hi) scratch[k++] = order[j++];
+				System.arraycopy(scratch, lo, order, lo, hi - lo);
+			}
+		}
+		Writer out = openWriter();
+		for (int i = 0; i < count; i++) {
+			if (i == 0 || compare(data, order[i - 1], data, order[i], recordSize) != 0) {
+				out.write(data, order[i]);
+			}
+		}
+		out.close();
+	}
+
+
+	/**
+	 * Delayed duplicate detection: merges sorted runs of newly generated states
+	 * against the sorted file of every state seen so far. States not seen before
+	 * are written to the next layer, and the seen file is rewritten with them.
+	 * @param runs the sorted runs of generated states
+	 * @param seen every state seen so far, sorted
+	 * @param layer receives the new states, sorted
+	 * @param seenOut receives the seen states plus the new ones, sorted
+	 * @return the number of generated states that were repeats
+	 */
+	public static long mergeNew(List<StateFile> runs, StateFile seen, StateFile layer, StateFile seenOut)
+			throws IOException {
+		final int size = seen.recordSize;
+		PriorityQueue<Reader> heads = new PriorityQueue<Reader>(Math.max(1, runs.size()),
+				new Comparator<Reader>() {
+					public int compare(Reader a, Reader b) {
+						return StateFile.compare(a.record, 0, b.record, 0, size);
+					}
+				});
+		for (StateFile run : runs) {
+			Reader in = run.openReader();
+			if (in.next()) heads.add(in);
+			else in.close();
+		}
+		Reader old = seen.openReader();
+		boolean hasOld = old.next();
+		Writer fresh = layer.openWriter(), all = seenOut.openWriter();
+		byte[] last = new byte[size];
+		boolean hasLast = false;
+		long repeats = 0;
+		while (!heads.isEmpty()) {
+			Reader in = heads.remove();
+			byte[] candidate = in.record;
+			if (hasLast && compare(candidate, 0, last, 0, size) == 0) {
+				repeats++;
+			}
+			else {
+				System.arraycopy(candidate, 0, last, 0, size);
+				hasLast = true;
+				while (hasOld && compare(old.record, 0, last, 0, size) < 0) {
+					all.write(old.record, 0);
+					hasOld = old.next();
+				}
+				if (hasOld && compare(old.record, 0, last, 0, size) == 0) {
+					repeats++;
+				}
+				else {
+					fresh.write(last, 0);
+					all.write(last, 0);
+				}
+			}
+			if (in.next()) heads.add(in);
+			else in.close();
+		}
+		while (hasOld) {
+			all.write(old.record, 0);
+			hasOld = old.next();
+		}
+		old.close();
+		fresh.close();
+		all.close();
+		return repeats;
+	}
+
+
+	// private method, compares two packed states as unsigned bytes
+	private static int compare(byte[] a, int offsetA, byte[] b, int offsetB, int size) {
+		for (int i = 0; i < size; i++) {
+			int x = a[offsetA + i] & 0xff, y = b[offsetB + i] & 0xff;
+			if (x != y) return x < y ? -1 : 1;
+		}
+		return 0;
+	}
+
+
+	/**
+	 * Appends records to a state file through a buffer.
+	 */
+	public class Writer {
+
+		private final RandomAccessFile out;
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER - BUFFER % recordSize);
+
+		private Writer() throws IOException {
+			out = new RandomAccessFile(file, "rw");
+			channel = out.getChannel();
+			channel.truncate(0);
+		}
+
+		/**
+		 * Appends one record.
+		 * @param data the array holding the record
+		 * @param offset where the record starts in the array
+		 */
+		public void write(byte[] data, int offset) throws IOException {
+			if (buffer.remaining() < recordSize) flush();
+			buffer.put(data, offset, recordSize);
+		}
+
+		// private method, empties the buffer into the file
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		/**
+		 * Writes out what is buffered and closes the file.
+		 */
+		public void close() throws IOException {
+			flush();
+			out.close();
+		}
+	}
+
+
+	/**
+	 * Reads the records of a state file in order through a buffer.
+	 */
+	public class Reader {
+
+		private final RandomAccessFile in;
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER - BUFFER % recordSize);
+
+		/**
+		 * The record last returned by next().
+		 */
+		public final byte[] record = new byte[recordSize];
+
+		private Reader() throws IOException {
+			in = new RandomAccessFile(file, "r");
+			channel = in.getChannel();
+			buffer.limit(0);
+		}
+
+		/**
+		 * Moves on to the next record.
+		 * @return false at the end of the file
+		 */
+		public boolean next() throws IOException {
+			if (buffer.remaining() < recordSize) {
+				buffer.compact();
+				while (buffer.position() < recordSize && channel.read(buffer) >= 0) {
+					// keep reading until a whole record is buffered or the file ends
+				}
+				buffer.flip();
+				if (buffer.remaining() < recordSize) return false;
+			}
+			buffer.get(record);
+			return true;
+		}
+
+		/**
+		 * Closes the file.
+		 */
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,241 @@
+import java.util.Arrays;
+
+/**
+ * An explored list that holds states as packed bits instead of objects. Each state
+ * is a bit per square a box can stand on, followed by the index of the player's
+ * square (the normalized one, for push-level states), packed into a few longs. A
+ * search can then keep millions of states without an object, a box array and a
+ * hash set entry for each, and without the garbage collector having to trace them.
+ * <p>
+ * States are numbered in the order they are added, and the number of a state never
+ * changes. Each one keeps a cost (the moves or pushes it was reached with) and the
+ * number of the state it was reached from, so the path to a state can be followed
+ * back after its PuzzleState is gone (see PuzzleState.detach). The packed states and
+ * their cost and parent sit one after another in a single long array, and an int
+ * array of state numbers, with linear probing, finds them by hash; both grow by
+ * doubling. A state costs (words + 1) * 8 bytes, plus about 5 bytes of table.
+ * <p>
+ * With symmetry reduction the canonical image of a state is packed, so that its
+ * images are found as the same state. Not thread safe.
+ * @author Andrew Goldin
+ */
+public class StateStore {
+
+	// the bit of each square a box can stand on, and the index of each square the
+	// player can stand on (-1 for neither)
+	private final int[] boxBit, playerIndex;
+	private final int playerShift, words, stride;
+
+	// entry i: words of packed state at i * stride, then its cost (high half) and parent (low half)
+	private long[] entries;
+	private int size;
+
+	// open addressing over the entries: state number + 1 in each slot, 0 for empty
+	private int[] table;
+	private int mask;
+
+	// the packed form of the state being looked up
+	private final long[] packed;
+
+	// the table is doubled when it is this full (in quarters)
+	private static final int LOAD_QUARTERS = 3;
+
+	// the share of the table one state takes, roughly: a 4 byte slot at up to 3/4 full
+	private static final int TABLE_BYTES = 5;
+
+
+	/**
+	 * Creates an empty store for the states of a level.
+	 * @param start the start state of the level; a box it has on a dead square can be stored too
+	 */
+	public StateStore(PuzzleState start) {
+		Board board = start.getBoard();
+		boxBit = new int[board.getSize()];
+		playerIndex = new int[board.getSize()];
+		boolean stuck = false;
+		for (short box : start.getBoxes()) {
+			stuck |= board.isDeadSquare(box);
+		}
+		int bits = 0, squares = 0;
+		for (int cell = 0; cell < board.getSize(); cell++) {
+			boolean floor = !board.isWall(cell);
+			// boxes are never pushed onto dead squares, so those only need a bit when the start has one there
+			boxBit[cell] = floor && (stuck || !board.isDeadSquare(cell)) ? bits++ : -1;
+			playerIndex[cell] = floor ? squares++ : -1;
+		}
+		playerShift = bits;
+		int playerBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, squares - 1));
+		words = Math.max(1, (bits + playerBits + 63) / 64);
+		stride = words + 1;
+		packed = new long[words];
+		entries = new long[64 * stride];
+		table = new int[128];
+		mask = table.length - 1;
+	}
+
+
+	/**
+	 * Adds a state unless it is already in the store.
+	 * @param state the state to add
+	 * @param cost the moves (or pushes) the state was reached with
+	 * @param parent the number of the state it was reached from, or -1 for none
+	 * @return the number of the new state, or -(number + 1) of the state already there
+	 */
+	public int add(PuzzleState state, int cost, int parent) {
+		pack(state);
+		int slot = locate();
+		if (table[slot] != 0) {
+			return -table[slot];
+		}
+		if (size == (Integer.MAX_VALUE - 8) / stride) {
+			throw new OutOfMemoryError("state store is full");
+		}
+		if ((size + 1) * (long) stride > entries.length) {
+			entries = Arrays.copyOf(entries, (int) Math.min(Integer.MAX_VALUE - 8, 2L * entries.length));
+		}
+		int at = size * stride;
+		System.arraycopy(packed, 0, entries, at, words);
+		entries[at + words] = ((long) cost << 32) | (parent & 0xffffffffL);
+		table[slot] = ++size;
+		if (size * 4L > (long) table.length * LOAD_QUARTERS) {
+			grow();
+		}
+		return size - 1;
+	}
+
+
+	/**
+	 * Finds the number of a state in the store.
+	 * @param state the state to look up
+	 * @return the number of the state, or -1 if it is not in the store
+	 */
+	public int find(PuzzleState state) {
+		pack(state);
+		return table[locate()] - 1;
+	}
+
+
+	/**
+	 * The cost a stored state was reached with.
+	 * @param index the number of the state
+	 * @return the moves (or pushes)
+	 */
+	public int getCost(int index) {
+		return (int) (entries[index * stride + words] >> 32);
+	}
+
+
+	/**
+	 * Records a cheaper way to reach a stored state.
+	 * @param index the number of the state
+	 * @param cost the moves (or pushes) it is now reached with
+	 * @param parent the number of the state it is now reached from, or -1 for none
+	 */
+	public void update(int index, int cost, int parent) {
+		entries[index * stride + words] = ((long) cost << 32) | (parent & 0xffffffffL);
+	}
+
+
+	/**
+	 * The state a stored state was reached from.
+	 * @param index the number of the state
+	 * @return the number of the parent, or -1 for none
+	 */
+	public int getParent(int index) {
+		return (int) entries[index * stride + words];
+	}
+
+
+	/**
+	 * The heap one stored state takes: its packed words, its cost and parent, and
+	 * about its share of the table. A memory budget divided by this is the number of
+	 * states that fit in it.
+	 * @return the bytes per state
+	 */
+	public int getBytesPerState() {
+		return stride * 8 + TABLE_BYTES;
+	}
+
+
+	/**
+	 * The number of states in the store.
+	 * @return the number of states
+	 */
+	public int size() {
+		return size;
+	}
+
+
+	/**
+	 * Removes every state, keeping the arrays for reuse.
+	 */
+	public void clear() {
+		Arrays.fill(table, 0);
+		size = 0;
+	}
+
+
+	// private method, packs the boxes and player of a state (its canonical image, with symmetry reduction)
+	private void pack(PuzzleState state) {
+		if (state.isSymmetric()) {
+			state = state.getCanonical();
+		}
+		Arrays.fill(packed, 0);
+		for (short box : state.getBoxes()) {
+			int bit = boxBit[box];
+			packed[bit >>> 6] |= 1L << bit;
+		}
+		long player = playerIndex[state.getPlayer()];
+		packed[playerShift >>> 6] |= player << playerShift;
+		// the player index may run over into the next word
+		if ((playerShift & 63) != 0 && (playerShift >>> 6) + 1 < words) {
+			packed[(playerShift >>> 6) + 1] |= player >>> (64 - (playerShift & 63));
+		}
+	}
+
+
+	// private method, the slot holding the packed state, or the empty slot where it belongs
+	private int locate() {
+		int slot = mix(packed, 0) & mask;
+		while (table[slot] != 0 && !matches(table[slot] - 1)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+
+	// private method, whether a stored state is the packed one
+	private boolean matches(int index) {
+		int at = index * stride;
+		for (int i = 0; i < words; i++) {
+			if (entries[at + i] != packed[i]) return false;
+		}
+		return true;
+	}
+
+
+	// private method, doubles the table and puts every state back in it
+	private void grow() {
+		table = new int[table.length * 2];
+		mask = table.length - 1;
+		for (int i = 0; i < size; i++) {
+			int slot = mix(entries, i * stride) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = i + 1;
+		}
+	}
+
+
+	// private method, a hash of the packed words starting at an offset
+	private int mix(long[] data, int offset) {
+		long h = 0;
+		for (int i = 0; i < words; i++) {
+			h = (h ^ data[offset + i]) * 0x9E3779B97F4A7C15L;
+		}
+		h ^= h >>> 29;
+		return (int) (h ^ (h >>> 32));
+	}
+
+}
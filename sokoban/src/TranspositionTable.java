@@ -0,0 +1,70 @@
+/**
+ * A fixed-size table of states already searched by IDA*, keyed by zobrist hash.
+ * Each slot remembers the hash of one state, the fewest moves it was reached
+ * with, and the iteration that reached it. A state reached again in the same
+ * iteration with at least as many moves can be skipped, since its subtree has
+ * already been searched with at least as much of the bound left.
+ * <p>
+ * The table never grows: when two states map to the same slot, the newer
+ * iteration wins, and within an iteration the state closer to the start wins.
+ * @author Andrew Goldin
+ */
+public class TranspositionTable {
+
+	private final long[] keys;
+	private final int[] depths, iterations;
+	private final int mask;
+	private int used;
+
+
+	/**
+	 * Creates a table with 2^bits slots.
+	 * @param bits the log2 of the number of slots
+	 */
+	public TranspositionTable(int bits) {
+		keys = new long[1 << bits];
+		depths = new int[1 << bits];
+		iterations = new int[1 << bits];
+		mask = (1 << bits) - 1;
+	}
+
+
+	/**
+	 * Determines if a state has been searched in this iteration with no more
+	 * moves than it has now. If not, the state is recorded (possibly replacing
+	 * another state in its slot).
+	 * @param hash the zobrist hash of the state
+	 * @param depth the moves (or pushes) taken to reach the state
+	 * @param iteration the current iteration, starting from 1
+	 * @return true if the state can be skipped
+	 */
+	public boolean probe(long hash, int depth, int iteration) {
+		int slot = (int) (hash ^ (hash >>> 32)) & mask;
+		if (iterations[slot] == 0) {
+			used++;
+		}
+		else if (keys[slot] == hash && iterations[slot] == iteration) {
+			if (depths[slot] <= depth) {
+				return true;
+			}
+		}
+		else if (iterations[slot] == iteration && depths[slot] < depth) {
+			// keep the entry closer to the start, it prunes more
+			return false;
+		}
+		keys[slot] = hash;
+		depths[slot] = depth;
+		iterations[slot] = iteration;
+		return false;
+	}
+
+
+	/**
+	 * The number of slots holding a state.
+	 * @return the number of slots in use
+	 */
+	public int size() {
+		return used;
+	}
+
+}
@@ -0,0 +1,290 @@
+import java.util.Arrays;
+
+/**
+ * A single, mutable position that a depth-first search moves forward and back in
+ * place, instead of creating a PuzzleState for every node. Each move is made on the
+ * board and recorded on a stack, and undo takes back the last one, so the path
+ * from the start is always the contents of the stack.
+ * <p>
+ * The moves from a position are numbered 0 to getBranching() - 1. For single steps
+ * these are the four directions; at the push level they are every box in every
+ * direction (box index * 4 + direction - 1), and the player walks to the box
+ * first. Pushes onto dead squares are refused, as by PuzzleState.canMove.
+ * <p>
+ * All arrays are sized when the board is created, so making and undoing moves
+ * allocates nothing; only getMoves builds a string. Not thread safe.
+ * @author Andrew Goldin
+ */
+public class WorkingBoard {
+
+	private final Board board;
+	private final boolean pushLevel;
+
+	// the cell of each box, by a box index that never changes, and the box index
+	// on each cell (-1 for none)
+	private final int[] boxes, boxAt;
+	private int player, offGoal;
+	private long boxHash;
+
+	// the move stack: the move made at each depth, the player cell before it, and
+	// the cell the pushed box ended up on (-1 if the move pushed nothing)
+	private final int[] made, from, pushed;
+	private int depth;
+
+	// push level only: the squares the player can reach, marked with the current
+	// stamp, and the top-left of them; worked out again after each move
+	private final int[] reached, queue;
+	private int stamp, region;
+	private boolean stale;
+
+
+	/**
+	 * Creates a working board at the position of a state.
+	 * @param start the position to start from; its player is where the player stands
+	 * @param pushLevel true for box pushes as moves, false for single steps
+	 * @param capacity the most moves that will be made without being undone
+	 */
+	public WorkingBoard(PuzzleState start, boolean pushLevel, int capacity) {
+		board = start.getBoard();
+		this.pushLevel = pushLevel;
+		short[] cells = start.getBoxes();
+		boxes = new int[cells.length];
+		boxAt = new int[board.getSize()];
+		Arrays.fill(boxAt, -1);
+		for (int i = 0; i < cells.length; i++) {
+			boxes[i] = cells[i];
+			boxAt[cells[i]] = i;
+			boxHash ^= board.boxKey(cells[i]);
+			if (!board.isGoal(cells[i])) offGoal++;
+		}
+		player = start.getPlayerPosition();
+		made = new int[capacity];
+		from = new int[capacity];
+		pushed = new int[capacity];
+		reached = new int[board.getSize()];
+		queue = new int[board.getSize()];
+		stale = true;
+	}
+
+
+	/**
+	 * The number of moves numbered from each position: 4 for single steps, and 4 per
+	 * box at the push level.
+	 * @return the number of moves
+	 */
+	public int getBranching() {
+		return pushLevel ? 4 * boxes.length : 4;
+	}
+
+
+	/**
+	 * Determines if a move can be made from the current position. At the push level
+	 * the player must be able to walk behind the box.
+	 * @param move the move number
+	 * @return true if the move is legal and does not push a box onto a dead square
+	 */
+	public boolean canMake(int move) {
+		int offset = board.offset(move % 4 + 1);
+		if (pushLevel) {
+			int box = boxes[move / 4], target = box + offset;
+			return reach(box - offset) && !board.isWall(target) && boxAt[target] < 0 && !board.isDeadSquare(target);
+		}
+		int next = player + offset;
+		if (board.isWall(next)) {
+			return false;
+		}
+		if (boxAt[next] >= 0) {
+			int target = next + offset;
+			return !board.isWall(target) && boxAt[target] < 0 && !board.isDeadSquare(target);
+		}
+		return true;
+	}
+
+
+	/**
+	 * Determines if a move would be legal but for pushing a box onto a dead square.
+	 * @param move the move number
+	 * @return true if the move is a push onto a dead square
+	 */
+	public boolean isDeadPush(int move) {
+		int offset = board.offset(move % 4 + 1);
+		int box = pushLevel ? boxes[move / 4] : player + offset, target = box + offset;
+		if (pushLevel ? !reach(box - offset) : board.isWall(box) || boxAt[box] < 0) {
+			return false;
+		}
+		return !board.isWall(target) && boxAt[target] < 0 && board.isDeadSquare(target);
+	}
+
+
+	/**
+	 * Makes a move, which must be legal, and puts it on the move stack.
+	 * @param move the move number
+	 */
+	public void make(int move) {
+		int offset = board.offset(move % 4 + 1);
+		made[depth] = move;
+		from[depth] = player;
+		pushed[depth] = -1;
+		int next = pushLevel ? boxes[move / 4] : player + offset;
+		if (boxAt[next] >= 0) {
+			shift(next, next + offset);
+			pushed[depth] = next + offset;
+		}
+		player = next;
+		depth++;
+		stale = true;
+	}
+
+
+	/**
+	 * Takes back the last move on the move stack.
+	 */
+	public void undo() {
+		depth--;
+		if (pushed[depth] >= 0) {
+			shift(pushed[depth], pushed[depth] - board.offset(made[depth] % 4 + 1));
+		}
+		player = from[depth];
+		stale = true;
+	}
+
+
+	// private method, moves a box from one cell to another, keeping the hash and the count up to date
+	private void shift(int cell, int target) {
+		int index = boxAt[cell];
+		boxAt[cell] = -1;
+		boxAt[target] = index;
+		boxes[index] = target;
+		boxHash ^= board.boxKey(cell) ^ board.boxKey(target);
+		if (!board.isGoal(cell)) offGoal--;
+		if (!board.isGoal(target)) offGoal++;
+	}
+
+
+	// private method, whether the player can walk to a cell without moving a box; floods
+	// the player's region first if a move was made since the last time
+	private boolean reach(int cell) {
+		if (stale) {
+			if (++stamp == Integer.MAX_VALUE) {
+				Arrays.fill(reached, 0);
+				stamp = 1;
+			}
+			int head = 0, tail = 0;
+			queue[tail++] = player;
+			reached[player] = stamp;
+			region = player;
+			while (head < tail) {
+				int at = queue[head++];
+				if (at < region) region = at;
+				for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+					int next = at + board.offset(d);
+					if (reached[next] != stamp && !board.isWall(next) && boxAt[next] < 0) {
+						reached[next] = stamp;
+						queue[tail++] = next;
+					}
+				}
+			}
+			stale = false;
+		}
+		return reached[cell] == stamp;
+	}
+
+
+	/**
+	 * The zobrist hash of the current position: the boxes and the player, or at the
+	 * push level the boxes and the top-left square the player can reach, as for
+	 * PuzzleState.getHash.
+	 * @return the hash
+	 */
+	public long getHash() {
+		if (pushLevel) {
+			reach(player);
+			return boxHash ^ board.playerKey(region);
+		}
+		return boxHash ^ board.playerKey(player);
+	}
+
+
+	/**
+	 * The number of moves on the move stack.
+	 * @return the depth of the current position
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+
+	/**
+	 * The number of boxes not on a goal. Each needs at least one more push, so this
+	 * never overestimates the moves (or pushes) left.
+	 * @return the number of boxes off goals
+	 */
+	public int getBoxesOffGoals() {
+		return offGoal;
+	}
+
+
+	/**
+	 * Determines if every box is on a goal.
+	 * @return true if the position is solved
+	 */
+	public boolean isGoalState() {
+		return offGoal == 0;
+	}
+
+
+	/**
+	 * The moves on the move stack as letters (u, d, l, r, upper case for a push). At
+	 * the push level the walk to each push is filled in, by taking the pushes back
+	 * and making them again.
+	 * @return the list of moves
+	 */
+	public String getMoves() {
+		StringBuilder moves = new StringBuilder();
+		if (!pushLevel) {
+			for (int i = 0; i < depth; i++) {
+				char letter = "udlr".charAt(made[i] % 4);
+				moves.append(pushed[i] >= 0 ? Character.toUpperCase(letter) : letter);
+			}
+			return moves.toString();
+		}
+		int count = depth;
+		int[] pushes = Arrays.copyOf(made, count);
+		while (depth > 0) {
+			undo();
+		}
+		for (int i = 0; i < count; i++) {
+			int behind = boxes[pushes[i] / 4] - board.offset(pushes[i] % 4 + 1);
+			moves.append(walk(player, behind)).append("UDLR".charAt(pushes[i] % 4));
+			make(pushes[i]);
+		}
+		return moves.toString();
+	}
+
+
+	// private method, the shortest walk between two cells that moves no box, as move letters
+	private String walk(int start, int end) {
+		int[] cameFrom = new int[board.getSize()];
+		Arrays.fill(cameFrom, -1);
+		int head = 0, tail = 0;
+		queue[tail++] = start;
+		cameFrom[start] = start;
+		while (head < tail && cameFrom[end] < 0) {
+			int cell = queue[head++];
+			for (int d = PuzzleState.UP; d <= PuzzleState.RIGHT; d++) {
+				int next = cell + board.offset(d);
+				if (cameFrom[next] < 0 && !board.isWall(next) && boxAt[next] < 0) {
+					cameFrom[next] = cell;
+					queue[tail++] = next;
+				}
+			}
+		}
+		StringBuilder path = new StringBuilder();
+		for (int cell = end; cell != start; cell = cameFrom[cell]) {
+			int step = cell - cameFrom[cell];
+			path.append(step == -board.getWidth() ? 'u' : step == board.getWidth() ? 'd' : step == -1 ? 'l' : 'r');
+		}
+		return path.reverse().toString();
+	}
+
+}